@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-sorting a column when sizes change, and formatting sizes.
+ * <p/>
+ * The column is not displayed and its fetches are never run (the scheduler has no worker): sizes
+ * are changed by the benchmark itself, the way fetch threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class ColumnsBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    // Share of the rows changed per frame
+    @Param({"0.01", "1"})
+    public double changed;
+
+    private final Random random = new Random(42);
+    private SweeperColumns columns;
+    private SweeperColumns.Column column;
+    private long[] sizes;
+    private int nextSize = 0;
+
+    @Setup
+    public void setUp()
+    {
+        List<Item> items = new ArrayList<Item>(rows);
+
+        for (int i = 0; i < rows; ++i) {
+            items.add(new StaticItem(String.format("part-%05d", i)));
+        }
+
+        columns = new SweeperColumns(new StaticItem("root"), new FetchScheduler(0));
+        column = columns.new Column(items);
+
+        // Sizes spanning bytes to petabytes, as labels get longer with units
+        sizes = new long[1024];
+
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = (long) Math.pow(2, random.nextDouble() * 50);
+        }
+
+        for (SweeperColumns.ColumnItem item : column.sortedItems) {
+            item.totalSize = nextSize();
+            column.changed(item);
+        }
+
+        column.updateItems();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        column.cancel();
+    }
+
+    @Benchmark
+    public int updateItems()
+    {
+        int count = Math.max(1, (int) (rows * changed));
+
+        for (int i = 0; i < count; ++i) {
+            SweeperColumns.ColumnItem item = column.sortedItems.get(random.nextInt(rows));
+
+            item.totalSize = nextSize();
+            column.changed(item);
+        }
+
+        column.updateItems();
+
+        return column.sortedItems.size();
+    }
+
+    @Benchmark
+    public SweeperColumns.ColumnItem sizeToLabel()
+    {
+        SweeperColumns.ColumnItem item = column.sortedItems.get(0);
+
+        SweeperColumns.sizeToLabel(nextSize(), item);
+
+        return item;
+    }
+
+    private long nextSize()
+    {
+        return sizes[nextSize++ & (sizes.length - 1)];
+    }
+}
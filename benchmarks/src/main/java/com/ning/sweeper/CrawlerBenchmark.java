@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a {@link NamespaceIndex} with the {@link Crawler}, from a synthetic namespace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrawlerBenchmark
+{
+    @Param({"8"})
+    public int fanOut;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"10"})
+    public int filesPerDirectory;
+
+    @Param({"0", "500"})
+    public long latencyMicros;
+
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    private SyntheticFileSystem fs;
+
+    @Setup
+    public void setUp()
+    {
+        fs = new SyntheticFileSystem(fanOut, depth, filesPerDirectory, 1L << 20, 2.0, latencyMicros);
+    }
+
+    @Benchmark
+    public NamespaceIndex crawl() throws IOException
+    {
+        return new Crawler(fs, threads).crawl("/");
+    }
+
+    @Benchmark
+    public Summary crawlSummary() throws IOException
+    {
+        return new Crawler(fs, threads).crawl("/", null);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.sweeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to paint a frame of a column, scrolled by a page at every frame so that each one paints
+ * and prioritizes other rows. Run with -prof gc to check that painting doesn't allocate.
+ * <p/>
+ * The column is painted into an image, its fetches are never run (the scheduler has no worker).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class FrameBenchmark
+{
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 1000;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private SweeperColumns.Column column;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        List<Item> items = new ArrayList<Item>(rows);
+
+        for (int i = 0; i < rows; ++i) {
+            items.add(new StaticItem(String.format("part-%05d", i)));
+        }
+
+        SweeperColumns columns = new SweeperColumns(new StaticItem("root"), new FetchScheduler(0));
+
+        column = columns.new Column(items);
+
+        for (SweeperColumns.ColumnItem item : column.sortedItems) {
+            // Sizes spanning bytes to petabytes, as labels get longer with units
+            item.totalSize = (long) Math.pow(2, random.nextDouble() * 50);
+            column.changed(item);
+        }
+
+        column.updateItems();
+        column.setSize(WIDTH, HEIGHT);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        graphics.dispose();
+        column.cancel();
+    }
+
+    @Benchmark
+    public BufferedImage paint()
+    {
+        int value = column.verticalScrollBar.getValue() + HEIGHT;
+
+        column.verticalScrollBar.setValue(value + HEIGHT > column.verticalScrollBar.getMaximum() ? 0 : value);
+        column.paintComponent(graphics);
+
+        return image;
+    }
+}
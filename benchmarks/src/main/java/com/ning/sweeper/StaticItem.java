@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+/**
+ * Row of a given name, whose size is set on its {@link SweeperColumns.ColumnItem} by the benchmarks
+ */
+class StaticItem implements Item
+{
+    private final String name;
+
+    StaticItem(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return UNKNOWN_SIZE;
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return UNKNOWN_SIZE;
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        return ImmutableList.of();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only, in-memory {@link FileSystem} generating a regular namespace: every directory above
+ * the given depth has fanOut subdirectories (dir-0, dir-1...), every directory has the same
+ * number of files (file-0, file-1...).
+ * <p/>
+ * File lengths are log-normal around the median, derived from the path so that they are the same
+ * from one call to the next. Every call sleeps for the given latency, like a namenode RPC would.
+ */
+public class SyntheticFileSystem extends FileSystem
+{
+    private static final URI URI = java.net.URI.create("synthetic:///");
+    private static final long BLOCK_SIZE = 64L << 20;
+    private static final short REPLICATION = 3;
+
+    private final int fanOut;
+    private final int depth;
+    private final int filesPerDirectory;
+    private final long medianFileLength;
+    private final double fileLengthSigma;
+    private final long latencyMicros;
+
+    private Path workingDirectory = new Path("/");
+
+    /**
+     * @param fileLengthSigma standard deviation of the log of file lengths, 0 for a fixed length
+     */
+    public SyntheticFileSystem(int fanOut, int depth, int filesPerDirectory, long medianFileLength, double fileLengthSigma, long latencyMicros)
+    {
+        this.fanOut = fanOut;
+        this.depth = depth;
+        this.filesPerDirectory = filesPerDirectory;
+        this.medianFileLength = medianFileLength;
+        this.fileLengthSigma = fileLengthSigma;
+        this.latencyMicros = latencyMicros;
+    }
+
+    @Override
+    public URI getUri()
+    {
+        return URI;
+    }
+
+    @Override
+    public FileStatus getFileStatus(Path path) throws IOException
+    {
+        rpc();
+
+        return getStatus(path);
+    }
+
+    @Override
+    public FileStatus[] listStatus(Path path) throws IOException
+    {
+        rpc();
+
+        FileStatus status = getStatus(path);
+
+        if (!status.isDir()) {
+            return new FileStatus[]{status};
+        }
+
+        return listChildren(status.getPath());
+    }
+
+    @Override
+    public ContentSummary getContentSummary(Path path) throws IOException
+    {
+        rpc();
+
+        // length, files, directories, space consumed
+        long[] summary = new long[4];
+
+        summarize(getStatus(path), summary);
+
+        return new ContentSummary(summary[0], summary[1], summary[2], -1, summary[3], -1);
+    }
+
+    private void summarize(FileStatus status, long[] summary)
+    {
+        if (status.isDir()) {
+            summary[2]++;
+
+            for (FileStatus child : listChildren(status.getPath())) {
+                summarize(child, summary);
+            }
+        }
+        else {
+            summary[0] += status.getLen();
+            summary[1]++;
+            summary[3] += status.getLen() * status.getReplication();
+        }
+    }
+
+    private FileStatus[] listChildren(Path directory)
+    {
+        int level = getLevel(directory);
+        int directories = level < depth ? fanOut : 0;
+        FileStatus[] children = new FileStatus[directories + filesPerDirectory];
+
+        for (int i = 0; i < directories; ++i) {
+            children[i] = directoryStatus(new Path(directory, "dir-" + i));
+        }
+
+        for (int i = 0; i < filesPerDirectory; ++i) {
+            children[directories + i] = fileStatus(new Path(directory, "file-" + i));
+        }
+
+        return children;
+    }
+
+    private FileStatus getStatus(Path path) throws FileNotFoundException
+    {
+        String[] components = path.toUri().getPath().split("/");
+        int level = 0;
+
+        for (int i = 0; i < components.length; ++i) {
+            String component = components[i];
+
+            if (component.isEmpty()) {
+                continue;
+            }
+
+            if (component.startsWith("dir-") && level < depth && isIndex(component.substring(4), fanOut)) {
+                level++;
+            }
+            else if (i == components.length - 1 && component.startsWith("file-") && isIndex(component.substring(5), filesPerDirectory)) {
+                return fileStatus(path);
+            }
+            else {
+                throw new FileNotFoundException(String.format("[%s] doesn't exist", path));
+            }
+        }
+
+        return directoryStatus(path);
+    }
+
+    private static boolean isIndex(String value, int count)
+    {
+        try {
+            int index = Integer.parseInt(value);
+
+            return index >= 0 && index < count;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int getLevel(Path directory)
+    {
+        int level = 0;
+
+        for (Path parent = directory.getParent(); parent != null; parent = parent.getParent()) {
+            level++;
+        }
+
+        return level;
+    }
+
+    private FileStatus directoryStatus(Path path)
+    {
+        return new FileStatus(0, true, 0, 0, 0, makeQualified(path));
+    }
+
+    private FileStatus fileStatus(Path path)
+    {
+        long length = medianFileLength;
+
+        if (fileLengthSigma > 0) {
+            length = (long) (medianFileLength * Math.exp(fileLengthSigma * new Random(path.toString().hashCode()).nextGaussian()));
+        }
+
+        return new FileStatus(length, false, REPLICATION, BLOCK_SIZE, 0, makeQualified(path));
+    }
+
+    private void rpc() throws InterruptedIOException
+    {
+        if (latencyMicros > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during a synthetic call");
+            }
+        }
+    }
+
+    @Override
+    public Path makeQualified(Path path)
+    {
+        return path.isAbsolute() ? path : new Path(workingDirectory, path);
+    }
+
+    @Override
+    public void setWorkingDirectory(Path directory)
+    {
+        workingDirectory = makeQualified(directory);
+    }
+
+    @Override
+    public Path getWorkingDirectory()
+    {
+        return workingDirectory;
+    }
+
+    @Override
+    public FSDataInputStream open(Path path, int bufferSize) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public FSDataOutputStream create(Path path, FsPermission permission, boolean overwrite, int bufferSize, short replication, long blockSize, Progressable progress) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public FSDataOutputStream append(Path path, int bufferSize, Progressable progress) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean rename(Path source, Path destination) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    @Deprecated
+    public boolean delete(Path path) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean delete(Path path, boolean recursive) throws IOException
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean mkdirs(Path path, FsPermission permission) throws IOException
+    {
+        throw readOnly();
+    }
+
+    private static IOException readOnly()
+    {
+        return new IOException("Synthetic file systems are read-only");
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ContentSummaryTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking a whole tree through {@link Item#getChildren()} and {@link Item#getTotalSize()}, the way
+ * the columns do, for each kind of item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TraversalBenchmark
+{
+    public enum Source
+    {
+        HDFS,
+        INDEX,
+        SNAPSHOT,;
+    }
+
+    @Param({"10"})
+    public int fanOut;
+
+    @Param({"3"})
+    public int depth;
+
+    @Param({"10"})
+    public int filesPerDirectory;
+
+    @Param({"HDFS", "INDEX", "SNAPSHOT"})
+    public Source source;
+
+    @Param({"SPACE_USED", "NUMBER_OF_FILES"})
+    public ContentSummaryTypes contentSummaryType;
+
+    private SyntheticFileSystem fs;
+    private Namespace namespace;
+    private File snapshot;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fs = new SyntheticFileSystem(fanOut, depth, filesPerDirectory, 1L << 20, 2.0, 0);
+
+        if (source == Source.HDFS) {
+            return;
+        }
+
+        NamespaceIndex index = new Crawler(fs, 4).crawl("/");
+
+        if (source == Source.INDEX) {
+            namespace = index;
+        }
+        else {
+            snapshot = File.createTempFile("sweeper", ".snapshot");
+            NamespaceSnapshot.write(index, snapshot);
+            namespace = NamespaceSnapshot.open(snapshot);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if (snapshot != null) {
+            snapshot.delete();
+        }
+    }
+
+    @Benchmark
+    public long traverse() throws IOException
+    {
+        Item root;
+
+        if (source == Source.HDFS) {
+            // New items every time, they cache their children and sizes
+            root = new HdfsItem(fs, "/", contentSummaryType);
+        }
+        else {
+            root = new NamespaceItem(namespace, Namespace.ROOT, contentSummaryType);
+        }
+
+        return traverse(root);
+    }
+
+    private static long traverse(Item item)
+    {
+        long total = item.getTotalSize();
+
+        for (Item child : item.getChildren()) {
+            total += traverse(child);
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.log4j.Logger;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD concurrency limiter protecting the namenode.
+ * <p/>
+ * The number of calls in flight grows by one every time a full window of calls completes with
+ * a latency close to the baseline (the lowest recent latency), and is halved when the average
+ * latency exceeds the baseline by the configured tolerance or a call fails. Calls issued before
+ * a decrease are ignored, as they don't reflect it yet. An optional hard cap on calls per second
+ * is enforced on top of it.
+ * <p/>
+ * Each method has its own baseline, a listStatus can't be compared with a getFileStatus. Calls
+ * whose latency depends on the work asked rather than on the load (getContentSummary grows with
+ * the subtree) only grow the limit when they succeed. Abandoned calls, e.g. cancelled by an
+ * interrupt, say nothing about the namenode and are ignored.
+ */
+public class AdaptiveLimiter
+{
+    private static final Logger log = Logger.getLogger(AdaptiveLimiter.class.getName());
+
+    private static final double SMOOTHING = 0.2;
+    // Let the baseline creep up by 0.1% per sample, so that it follows a slower but healthy namenode
+    private static final double BASELINE_DRIFT = 0.001;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private final int maxConcurrency;
+    private final double tolerance;
+    private final long nanosPerCall;
+
+    private double limit;
+    private int inFlight = 0;
+    private final Map<String, Signal> signals = new HashMap<String, Signal>();
+    private long issued = 0;
+    private long issuedAtDecrease = 0;
+    private long nextCallNanos = 0;
+
+    /**
+     * @param maxConcurrency   upper bound for the number of calls in flight
+     * @param maxCallsPerSecond hard cap on the call rate, 0 for none
+     * @param tolerance        latency increase over the baseline, as a ratio, considered as overload
+     */
+    public AdaptiveLimiter(int maxConcurrency, int maxCallsPerSecond, double tolerance)
+    {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.tolerance = tolerance;
+        this.nanosPerCall = maxCallsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxCallsPerSecond : 0;
+        // Start low, so that the baseline is measured on an unloaded namenode
+        this.limit = 1;
+    }
+
+    /**
+     * Block until a call may be issued. Must be followed by {@link #release(long, String, long, boolean)}
+     * or {@link #abandon()}.
+     *
+     * @return ticket to pass to release
+     */
+    public long acquire() throws InterruptedIOException
+    {
+        long ticket;
+        long waitNanos;
+
+        lock.lock();
+
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+
+            inFlight++;
+            ticket = ++issued;
+
+            long now = System.nanoTime();
+
+            nextCallNanos = Math.max(nextCallNanos, now);
+            waitNanos = nextCallNanos - now;
+            nextCallNanos += nanosPerCall;
+        }
+        catch (InterruptedException e) {
+            throw interrupted();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            catch (InterruptedException e) {
+                abandon();
+                throw interrupted();
+            }
+        }
+
+        return ticket;
+    }
+
+    /**
+     * @param ticket       returned by acquire
+     * @param method       calls sharing a latency baseline, null if the latency depends on the work asked
+     * @param latencyNanos duration of the call
+     * @param failed       whether the call failed, which is considered as overload
+     */
+    public void release(long ticket, String method, long latencyNanos, boolean failed)
+    {
+        lock.lock();
+
+        try {
+            inFlight--;
+
+            if (ticket <= issuedAtDecrease) {
+                // Issued under the previous limit
+            }
+            else if (failed) {
+                decrease("failure");
+            }
+            else {
+                record(method, latencyNanos);
+            }
+
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a call without judging the namenode by it
+     */
+    public void abandon()
+    {
+        lock.lock();
+
+        try {
+            inFlight--;
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit()
+    {
+        lock.lock();
+
+        try {
+            return (int) limit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight()
+    {
+        lock.lock();
+
+        try {
+            return inFlight;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void record(String method, long latencyNanos)
+    {
+        Signal signal = method == null ? null : signals.get(method);
+
+        if (signal != null) {
+            signal.averageLatency += SMOOTHING * (latencyNanos - signal.averageLatency);
+            signal.baselineLatency = Math.min(latencyNanos, signal.baselineLatency * (1 + BASELINE_DRIFT));
+
+            if (signal.averageLatency > signal.baselineLatency * tolerance) {
+                decrease(String.format("%s latency %.1f ms over baseline %.1f ms", method, signal.averageLatency / 1e6, signal.baselineLatency / 1e6));
+
+                return;
+            }
+        }
+        else if (method != null) {
+            signals.put(method, new Signal(latencyNanos));
+        }
+
+        if (limit < maxConcurrency) {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+    }
+
+    // Called with the lock held
+    private void decrease(String reason)
+    {
+        if (limit <= 1) {
+            return;
+        }
+
+        limit = Math.max(1, limit / 2);
+        issuedAtDecrease = issued;
+
+        // Judge the new limit on its own samples only
+        for (Signal signal : signals.values()) {
+            signal.averageLatency = signal.baselineLatency;
+        }
+
+        log.debug(String.format("Namenode overloaded (%s), limiting to %d concurrent calls", reason, (int) limit));
+    }
+
+    private static final class Signal
+    {
+        private double averageLatency;
+        private double baselineLatency;
+
+        private Signal(long latencyNanos)
+        {
+            this.averageLatency = latencyNanos;
+            this.baselineLatency = latencyNanos;
+        }
+    }
+
+    private static InterruptedIOException interrupted()
+    {
+        Thread.currentThread().interrupt();
+
+        return new InterruptedIOException("Interrupted while waiting for the namenode limiter");
+    }
+}
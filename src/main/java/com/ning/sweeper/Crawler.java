@@ -0,0 +1,813 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Walks a tree once with listStatus into a {@link NamespaceIndex}, which sums the totals bottom-up
+ * into every directory.
+ * <p/>
+ * This replaces one getContentSummary call per displayed item: the namenode scans every
+ * subtree once, instead of once per ancestor the user drills through.
+ * <p/>
+ * Directories are listed in parallel, one task per directory. Each worker pushes and pops the
+ * subdirectories it finds at the tail of its own deque (depth first, so pending tasks stay few)
+ * and, when idle, steals from the head of the others' (the oldest tasks, i.e. the largest
+ * subtrees), or parks until a task is pushed. Totals are summed per task: each directory stores
+ * its {@link Summary} in a slot of its parent and the last child to complete merges them, so no
+ * counter is shared between threads.
+ * <p/>
+ * The tasks block on namenode RPCs for milliseconds, which rules out a ForkJoinPool (jsr166y on
+ * Java 6): its workers are meant not to block, and would need a ManagedBlocker around every RPC
+ * to keep the pool busy. The deques are LinkedBlockingDeques, Java 6 having no lock-free one:
+ * their lock is held for a few instructions per task, so it is almost never contended.
+ * <p/>
+ * Neither the index nor the listener is thread safe, and neither is locked: listed directories
+ * (children kept as compact {@link Listing}s) are queued for the index, crawled ones for the
+ * listener, and whichever worker finds no one else draining the queue adds or delivers them.
+ * Listings are queued before their subdirectories are pushed, so parents reach the index before
+ * their children, and are dropped once added: memory beyond the index only depends on the
+ * directories being crawled and the listings not added yet.
+ * <p/>
+ * A previous crawl can be refreshed: every directory is checked with getFileStatus, but only those
+ * whose modification time changed (i.e. whose children were added, removed or renamed) are listed
+ * again. Unchanged directories keep their previous children; file lengths in them are not updated.
+ */
+public class Crawler
+{
+    private final static Logger log = Logger.getLogger(Crawler.class.getName());
+
+    private static final long MILLIS_PER_MINUTE = 60000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileSystem fs;
+    private final int threads;
+    // Left out of the index when false
+    private final boolean ages;
+    private final boolean principals;
+
+    public Crawler(FileSystem fs, int threads)
+    {
+        this(fs, threads, true, true);
+    }
+
+    public Crawler(FileSystem fs, int threads, boolean ages, boolean principals)
+    {
+        this.fs = fs;
+        this.threads = threads;
+        this.ages = ages;
+        this.principals = principals;
+    }
+
+    public interface Listener
+    {
+        /**
+         * Called once a directory and all its subdirectories are crawled, from the crawling threads
+         * (or the calling one, for the last directories) but never concurrently.
+         *
+         * @param depth 0 for the crawled directory
+         */
+        public void directoryCrawled(Path path, int depth, Summary summary);
+    }
+
+    public NamespaceIndex crawl(String path) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        FileStatus root = fs.getFileStatus(new Path(path));
+        NamespaceIndex index = new NamespaceIndex(root.getPath().toUri().getPath());
+
+        if (root.isDir()) {
+            int node = index.addDirectory(NamespaceIndex.NONE, root.getPath().getName());
+
+            index.setModificationTime(node, root.getModificationTime());
+            setOwner(index, node, root.getOwner(), root.getGroup());
+            new Crawl(index, null, null, null).run(new Task(null, 0, root.getPath(), node, 0, Namespace.NONE, 0));
+        }
+        else {
+            int node = index.addFile(NamespaceIndex.NONE, root.getPath().getName(), root.getLen(), root.getReplication(),
+                NamenodeCost.getBlockCount(root.getLen(), root.getBlockSize()));
+
+            if (ages) {
+                index.setLastTouchedDay(node, FileAgeHistogram.getDay(root.getAccessTime(), root.getModificationTime()));
+            }
+
+            setOwner(index, node, root.getOwner(), root.getGroup());
+        }
+
+        index.aggregate();
+
+        log.info(String.format("Crawled %d directories and %d files under [%s] in %d ms",
+            index.getDirectoryCount(NamespaceIndex.ROOT), index.getFileCount(NamespaceIndex.ROOT), path, System.currentTimeMillis() - start));
+
+        return index;
+    }
+
+    /**
+     * Crawl without keeping the tree: memory only depends on the directories being crawled.
+     */
+    public Summary crawl(String path, Listener listener) throws IOException
+    {
+        return crawl(path, listener, null);
+    }
+
+    /**
+     * @param usage if not null, charged with every crawled file
+     */
+    public Summary crawl(String path, Listener listener, Usage usage) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        FileStatus root = fs.getFileStatus(new Path(path));
+        Summary summary;
+
+        if (root.isDir()) {
+            summary = new Crawl(null, listener, null, usage).run(new Task(null, 0, root.getPath(), 0, 0, Namespace.NONE, 0));
+        }
+        else {
+            summary = new Summary();
+            summary.addFile(root, FileAgeHistogram.getToday());
+
+            if (usage != null) {
+                usage.addFile(root);
+            }
+        }
+
+        log.info(String.format("Crawled %s under [%s] in %d ms", summary, path, System.currentTimeMillis() - start));
+
+        return summary;
+    }
+
+    /**
+     * Crawl the root of a previous crawl again, only listing the directories modified since.
+     */
+    public NamespaceIndex refresh(Namespace previous) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        String path = previous.getRootPath();
+        FileStatus root = fs.getFileStatus(new Path(path));
+
+        if (!root.isDir() || !previous.isDirectory(Namespace.ROOT)) {
+            return crawl(path);
+        }
+
+        NamespaceIndex index = new NamespaceIndex(root.getPath().toUri().getPath());
+        int node = index.addDirectory(NamespaceIndex.NONE, root.getPath().getName());
+        Crawl crawl = new Crawl(index, null, previous, null);
+
+        index.setModificationTime(node, root.getModificationTime());
+        setOwner(index, node, root.getOwner(), root.getGroup());
+
+        crawl.run(new Task(null, 0, root.getPath(), node, 0, Namespace.ROOT, root.getModificationTime()));
+        index.aggregate();
+
+        log.info(String.format("Refreshed %d directories and %d files under [%s] in %d ms, %d directories listed again",
+            index.getDirectoryCount(NamespaceIndex.ROOT), index.getFileCount(NamespaceIndex.ROOT), path, System.currentTimeMillis() - start, crawl.listedDirectories.get()));
+
+        return index;
+    }
+
+    private void setOwner(NamespaceIndex index, int node, String owner, String group)
+    {
+        if (principals) {
+            index.setOwner(node, owner, group);
+        }
+    }
+
+    /**
+     * A directory to list. Completes once its listing and all its subdirectories' are done.
+     */
+    private static class Task
+    {
+        private final Task parent;
+        private final int slot;
+        private final Path path;
+        // Position in the parent's listing, or the node of the root in the index
+        private final int entry;
+        private final int depth;
+        // When refreshing: the directory in the previous crawl, and its modification time if known (else 0)
+        private final int previousNode;
+        private final long modificationTime;
+
+        private final Summary summary = new Summary();
+        private Summary[] children;
+        // Subdirectories still being crawled, plus one for the listing itself
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        // Children, until added to the index, then the node of the first one (the others follow).
+        // Published to the worker adding them by the queue
+        private Listing listing = null;
+        private int firstNode = Namespace.NONE;
+
+        private Task(Task parent, int slot, Path path, int entry, int depth, int previousNode, long modificationTime)
+        {
+            this.parent = parent;
+            this.slot = slot;
+            this.path = path;
+            this.entry = entry;
+            this.depth = depth;
+            this.previousNode = previousNode;
+            this.modificationTime = modificationTime;
+        }
+
+        // Called by the worker adding listings, once the parent's is added
+        private int getNode()
+        {
+            return parent == null ? entry : parent.firstNode + entry;
+        }
+    }
+
+    private class Crawl
+    {
+        private final NamespaceIndex index;
+        private final Listener listener;
+        private final Namespace previous;
+        private final Usage usage;
+        // For the age of the files, the same for the whole crawl
+        private final int asOfDay = FileAgeHistogram.getToday();
+
+        // Listed directories to add to the index, or crawled ones to deliver to the listener, in
+        // order, by a single worker at a time
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<Task>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private final Worker[] workers = new Worker[Math.max(1, threads)];
+        private final AtomicLong crawledDirectories = new AtomicLong();
+        private final AtomicLong listedDirectories = new AtomicLong();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private volatile Summary result = null;
+
+        private Crawl(NamespaceIndex index, Listener listener, Namespace previous, Usage usage)
+        {
+            this.index = index;
+            this.listener = listener;
+            this.previous = previous;
+            this.usage = usage;
+        }
+
+        private Summary run(Task root) throws IOException
+        {
+            Path path = root.path;
+
+            for (int i = 0; i < workers.length; ++i) {
+                workers[i] = new Worker(i);
+            }
+
+            workers[0].deque.addLast(root);
+
+            for (Worker worker : workers) {
+                worker.start();
+            }
+
+            boolean crawled = false;
+
+            try {
+                done.await();
+
+                if (failure.get() == null) {
+                    // Every task is complete: wake the parked workers up, and let the others finish
+                    // adding or delivering
+                    for (Worker worker : workers) {
+                        LockSupport.unpark(worker);
+                    }
+
+                    for (Worker worker : workers) {
+                        worker.join();
+                    }
+
+                    crawled = true;
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while crawling [%s]", path));
+            }
+            finally {
+                if (!crawled) {
+                    for (Worker worker : workers) {
+                        worker.interrupt();
+                    }
+                }
+            }
+
+            Throwable t = failure.get();
+
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            else if (t instanceof Error) {
+                throw (Error) t;
+            }
+
+            // Whatever was queued as the workers stopped
+            drain();
+
+            return result;
+        }
+
+        private void crawl(Worker worker, Task task)
+        {
+            if (task.previousNode != Namespace.NONE) {
+                long modificationTime = task.modificationTime;
+
+                if (modificationTime == 0) {
+                    try {
+                        modificationTime = fs.getFileStatus(task.path).getModificationTime();
+                    }
+                    catch (IOException e) {
+                        log.warn(String.format("Failed to get status of [%s] (%s)", task.path, e.getCause()));
+                    }
+                }
+
+                if (isUnchanged(modificationTime, previous.getModificationTime(task.previousNode))) {
+                    copy(worker, task, modificationTime);
+                    return;
+                }
+
+                list(worker, task, modificationTime);
+                return;
+            }
+
+            list(worker, task, 0);
+        }
+
+        /**
+         * Offline image viewer dumps only have minutes: a previous time on a whole minute matches
+         * any time within that minute. A crawled time falls on a whole minute once in 60000, and
+         * then misses the changes made within the same minute.
+         */
+        private boolean isUnchanged(long modificationTime, long previousModificationTime)
+        {
+            if (modificationTime == 0 || previousModificationTime == 0) {
+                return false;
+            }
+
+            if (previousModificationTime % MILLIS_PER_MINUTE == 0) {
+                return modificationTime / MILLIS_PER_MINUTE == previousModificationTime / MILLIS_PER_MINUTE;
+            }
+
+            return modificationTime == previousModificationTime;
+        }
+
+        /**
+         * @param modificationTime of the directory if only known now, else 0
+         */
+        private void list(Worker worker, Task task, long modificationTime)
+        {
+            FileStatus[] statuses;
+
+            try {
+                statuses = fs.listStatus(task.path);
+            }
+            catch (IOException e) {
+                log.warn(String.format("Failed to list [%s] (%s)", task.path, e.getCause()));
+                statuses = null;
+            }
+
+            if (statuses == null) {
+                statuses = new FileStatus[0];
+            }
+
+            listedDirectories.incrementAndGet();
+
+            if (usage != null) {
+                usage.addFiles(statuses);
+            }
+
+            if (index != null) {
+                Listing listing = new Listing(modificationTime, statuses.length);
+
+                for (FileStatus status : statuses) {
+                    String owner = principals ? status.getOwner() : null;
+                    String group = principals ? status.getGroup() : null;
+
+                    if (status.isDir()) {
+                        listing.addEntry(status.getPath().getName(), true, 0, (short) 0, 0, status.getModificationTime(), owner, group);
+                    }
+                    else {
+                        listing.addEntry(status.getPath().getName(), false, status.getLen(), status.getReplication(),
+                            NamenodeCost.getBlockCount(status.getLen(), status.getBlockSize()),
+                            ages ? FileAgeHistogram.getDay(status.getAccessTime(), status.getModificationTime()) : 0, owner, group);
+                    }
+                }
+
+                queue(task, listing);
+            }
+
+            Map<String, Integer> previousDirectories = getPreviousDirectories(task);
+            List<Task> subdirectories = new ArrayList<Task>();
+
+            for (int i = 0; i < statuses.length; ++i) {
+                FileStatus status = statuses[i];
+
+                if (status.isDir()) {
+                    Integer previousNode = previousDirectories.get(status.getPath().getName());
+
+                    subdirectories.add(new Task(task, subdirectories.size(), status.getPath(), i, task.depth + 1,
+                        previousNode == null ? Namespace.NONE : previousNode, status.getModificationTime()));
+                }
+                else {
+                    task.summary.addFile(status, asOfDay);
+                }
+            }
+
+            fork(worker, task, subdirectories);
+        }
+
+        /**
+         * Unchanged directory: take its children from the previous crawl. Only used to build an
+         * index, which sums the totals itself, so the task's summary is left empty.
+         */
+        private void copy(Worker worker, Task task, long modificationTime)
+        {
+            List<Integer> children = new ArrayList<Integer>();
+
+            for (int child = previous.getFirstChild(task.previousNode); child != Namespace.NONE; child = previous.getNextSibling(child)) {
+                children.add(child);
+            }
+
+            Listing listing = new Listing(modificationTime, children.size());
+            List<Task> subdirectories = new ArrayList<Task>();
+
+            for (int i = 0; i < children.size(); ++i) {
+                int child = children.get(i);
+                String name = previous.getName(child);
+                String owner = principals ? previous.getPrincipal(previous.getOwner(child)) : null;
+                String group = principals ? previous.getPrincipal(previous.getGroup(child)) : null;
+
+                if (previous.isDirectory(child)) {
+                    listing.addEntry(name, true, 0, (short) 0, 0, 0, owner, group);
+                    // Its modification time is only known once it is checked
+                    subdirectories.add(new Task(task, subdirectories.size(), new Path(task.path, name), i, task.depth + 1, child, 0));
+                }
+                else {
+                    long length = previous.getLength(child);
+                    short replication = (short) (length == 0 ? 0 : previous.getSpaceConsumed(child) / length);
+
+                    listing.addEntry(name, false, length, replication, (int) previous.getBlockCount(child),
+                        ages ? previous.getLastTouchedDay(child) : 0, owner, group);
+                }
+            }
+
+            queue(task, listing);
+            fork(worker, task, subdirectories);
+        }
+
+        private Map<String, Integer> getPreviousDirectories(Task task)
+        {
+            Map<String, Integer> directories = new HashMap<String, Integer>();
+
+            if (task.previousNode != Namespace.NONE) {
+                for (int child = previous.getFirstChild(task.previousNode); child != Namespace.NONE; child = previous.getNextSibling(child)) {
+                    if (previous.isDirectory(child)) {
+                        directories.put(previous.getName(child), child);
+                    }
+                }
+            }
+
+            return directories;
+        }
+
+        /**
+         * Must be called before the subdirectories are pushed, for their listings to be queued after
+         */
+        private void queue(Task task, Listing listing)
+        {
+            task.listing = listing;
+            queue.add(task);
+            drain();
+        }
+
+        private void fork(Worker worker, Task task, List<Task> subdirectories)
+        {
+            task.children = new Summary[subdirectories.size()];
+            task.pending.addAndGet(subdirectories.size());
+
+            // Pushed in reverse, so that the owner crawls them in listing order
+            for (int i = subdirectories.size() - 1; i >= 0; --i) {
+                worker.deque.addLast(subdirectories.get(i));
+            }
+
+            // This worker takes the first one
+            unpark(worker, subdirectories.size() - 1);
+
+            if (crawledDirectories.incrementAndGet() % 10000 == 0) {
+                log.info(String.format("Crawled %d directories so far", crawledDirectories.get()));
+            }
+
+            complete(task);
+        }
+
+        private void complete(Task task)
+        {
+            // The last of the listing and the subdirectories to complete sums them up, then
+            // completes its parent: the atomic decrement publishes the children's slots
+            while (task != null && task.pending.decrementAndGet() == 0) {
+                for (Summary child : task.children) {
+                    task.summary.addDirectory(child);
+                }
+
+                task.children = null;
+
+                if (listener != null) {
+                    queue.add(task);
+                    drain();
+                }
+
+                if (task.parent == null) {
+                    // The calling thread delivers what is still queued
+                    result = task.summary;
+                    done.countDown();
+                }
+                else {
+                    task.parent.children[task.slot] = task.summary;
+                }
+
+                task = task.parent;
+            }
+        }
+
+        /**
+         * Add the queued listings to the index, or deliver the queued directories to the listener,
+         * in order, unless another worker already is: it then takes these too, and this one goes
+         * on crawling
+         */
+        private void drain()
+        {
+            // Checked again once drained, in case a task was queued as this one stopped
+            while (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+                try {
+                    Task task;
+
+                    while ((task = queue.poll()) != null) {
+                        if (index != null) {
+                            task.firstNode = task.listing.addTo(index, task.getNode());
+                            task.listing = null;
+                        }
+                        else {
+                            listener.directoryCrawled(task.path, task.depth, task.summary);
+                        }
+                    }
+                }
+                finally {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private Task steal(Worker thief)
+        {
+            for (int i = 1; i < workers.length; ++i) {
+                Task task = workers[(thief.id + i) % workers.length].deque.pollFirst();
+
+                if (task != null) {
+                    return task;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Wake up to that many parked workers, to steal the tasks just pushed
+         */
+        private void unpark(Worker pusher, int tasks)
+        {
+            for (int i = 1; i < workers.length && tasks > 0; ++i) {
+                Worker worker = workers[(pusher.id + i) % workers.length];
+
+                if (worker.idle.compareAndSet(true, false)) {
+                    LockSupport.unpark(worker);
+                    tasks--;
+                }
+            }
+        }
+
+        private class Worker extends Thread
+        {
+            private final int id;
+            private final LinkedBlockingDeque<Task> deque = new LinkedBlockingDeque<Task>();
+            // Set before parking, cleared by whoever unparks it
+            private final AtomicBoolean idle = new AtomicBoolean();
+
+            private Worker(int id)
+            {
+                super("sweeper-crawl-" + id);
+                this.id = id;
+                setDaemon(true);
+            }
+
+            @Override
+            public void run()
+            {
+                try {
+                    while (done.getCount() > 0) {
+                        Task task = poll();
+
+                        if (task == null) {
+                            idle.set(true);
+
+                            // Checked again once idle: a task pushed before that unparks no one
+                            task = poll();
+
+                            if (task == null && done.getCount() > 0 && !isInterrupted()) {
+                                LockSupport.park(this);
+                            }
+
+                            idle.set(false);
+                        }
+
+                        if (task != null) {
+                            crawl(this, task);
+                        }
+                        else if (isInterrupted()) {
+                            // The crawl was abandoned
+                            return;
+                        }
+                    }
+                }
+                catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    done.countDown();
+                }
+            }
+
+            private Task poll()
+            {
+                Task task = deque.pollLast();
+
+                return task != null ? task : steal(this);
+            }
+        }
+    }
+
+    /**
+     * Children of a directory, as listed by a worker, until added to the index by the worker
+     * draining the queue. Names, owners and groups are kept as UTF-8 bytes in a pool.
+     */
+    private static class Listing
+    {
+        // Per entry: name, owner and group offsets and lengths in the pool, block count, replication
+        // (-1 for directories)
+        private static final int ENTRY_INTS = 8;
+        private static final int NAME_OFFSET = 0;
+        private static final int NAME_LENGTH = 1;
+        private static final int OWNER_OFFSET = 2;
+        private static final int OWNER_LENGTH = 3;
+        private static final int GROUP_OFFSET = 4;
+        private static final int GROUP_LENGTH = 5;
+        private static final int BLOCK_COUNT = 6;
+        private static final int REPLICATION = 7;
+
+        // Of the listed directory if only known now, else 0
+        private final long modificationTime;
+
+        private int entries = 0;
+        private final int[] entryInts;
+        // Length for files
+        private final long[] entryLengths;
+        // Modification time for directories, last touched day for files
+        private final long[] entryTimes;
+
+        private byte[] pool;
+        private int poolSize = 0;
+
+        // Siblings usually share their owner and group: don't copy them again
+        private String lastOwner = null;
+        private int lastOwnerOffset = 0;
+        private int lastOwnerLength = 0;
+        private String lastGroup = null;
+        private int lastGroupOffset = 0;
+        private int lastGroupLength = 0;
+
+        private Listing(long modificationTime, int capacity)
+        {
+            this.modificationTime = modificationTime;
+            this.entryInts = new int[capacity * ENTRY_INTS];
+            this.entryLengths = new long[capacity];
+            this.entryTimes = new long[capacity];
+            this.pool = new byte[Math.max(64, capacity * 16)];
+        }
+
+        private void addEntry(String name, boolean directory, long length, short replication, int blocks, long time, String owner, String group)
+        {
+            int entry = entries++;
+            int ints = entry * ENTRY_INTS;
+
+            entryInts[ints + NAME_OFFSET] = poolSize;
+            entryInts[ints + NAME_LENGTH] = append(name);
+
+            if (owner == null || !owner.equals(lastOwner)) {
+                lastOwner = owner;
+                lastOwnerOffset = poolSize;
+                lastOwnerLength = append(owner);
+            }
+
+            if (group == null || !group.equals(lastGroup)) {
+                lastGroup = group;
+                lastGroupOffset = poolSize;
+                lastGroupLength = append(group);
+            }
+
+            entryInts[ints + OWNER_OFFSET] = lastOwnerOffset;
+            entryInts[ints + OWNER_LENGTH] = lastOwnerLength;
+            entryInts[ints + GROUP_OFFSET] = lastGroupOffset;
+            entryInts[ints + GROUP_LENGTH] = lastGroupLength;
+            entryInts[ints + BLOCK_COUNT] = blocks;
+            entryInts[ints + REPLICATION] = directory ? -1 : replication;
+            entryLengths[entry] = length;
+            entryTimes[entry] = time;
+        }
+
+        /**
+         * @return the number of bytes appended to the pool, 0 for null
+         */
+        private int append(String string)
+        {
+            if (string == null) {
+                return 0;
+            }
+
+            byte[] bytes = string.getBytes(UTF_8);
+
+            if (poolSize + bytes.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + bytes.length));
+            }
+
+            System.arraycopy(bytes, 0, pool, poolSize, bytes.length);
+            poolSize += bytes.length;
+
+            return bytes.length;
+        }
+
+        /**
+         * Add the entries as children of the directory, next to each other
+         *
+         * @return the node of the first entry
+         */
+        private int addTo(NamespaceIndex index, int directory)
+        {
+            int first = index.size();
+
+            if (modificationTime != 0) {
+                index.setModificationTime(directory, modificationTime);
+            }
+
+            for (int entry = 0; entry < entries; ++entry) {
+                int ints = entry * ENTRY_INTS;
+                int replication = entryInts[ints + REPLICATION];
+                int node;
+
+                if (replication < 0) {
+                    node = index.addDirectory(directory, pool, entryInts[ints + NAME_OFFSET], entryInts[ints + NAME_LENGTH]);
+                    index.setModificationTime(node, entryTimes[entry]);
+                }
+                else {
+                    node = index.addFile(directory, pool, entryInts[ints + NAME_OFFSET], entryInts[ints + NAME_LENGTH], entryLengths[entry],
+                        (short) replication, entryInts[ints + BLOCK_COUNT]);
+                    index.setLastTouchedDay(node, (int) entryTimes[entry]);
+                }
+
+                index.setOwner(node, pool, entryInts[ints + OWNER_OFFSET], entryInts[ints + OWNER_LENGTH],
+                    entryInts[ints + GROUP_OFFSET], entryInts[ints + GROUP_LENGTH]);
+            }
+
+            return first;
+        }
+    }
+}
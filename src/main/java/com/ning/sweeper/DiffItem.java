@@ -0,0 +1,282 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Difference between the same path in two namespaces (e.g. yesterday's and today's snapshots):
+ * its size is the change of the content summary, negative if the subtree shrunk.
+ * <p/>
+ * Children are matched lazily, one directory at a time, with a merge-join of the name-sorted
+ * children of both sides: crawls and fsimages list siblings in name order, so nothing but the
+ * current position is kept. Directories whose children are not sorted are sorted on the fly.
+ */
+public class DiffItem implements PagedItem
+{
+    private final Namespace before;
+    private final int beforeNode;
+    private final Namespace after;
+    private final int afterNode;
+    private final ContentSummaryTypes contentSummaryType;
+
+    /**
+     * @param beforeNode {@link Namespace#NONE} if the path was created
+     * @param afterNode  {@link Namespace#NONE} if the path was deleted
+     */
+    public DiffItem(Namespace before, int beforeNode, Namespace after, int afterNode, ContentSummaryTypes contentSummaryType)
+    {
+        this.before = before;
+        this.beforeNode = beforeNode;
+        this.after = after;
+        this.afterNode = afterNode;
+        this.contentSummaryType = contentSummaryType;
+    }
+
+    @Override
+    public String getName()
+    {
+        boolean isDirectory;
+        String name;
+
+        if (afterNode != Namespace.NONE) {
+            isDirectory = after.isDirectory(afterNode);
+            name = after.getName(afterNode);
+        }
+        else {
+            isDirectory = before.isDirectory(beforeNode);
+            name = before.getName(beforeNode);
+        }
+
+        return isDirectory ? "/" + name : name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        long afterSize = getTotalSize(after, afterNode, contentSummaryType);
+        long beforeSize = getTotalSize(before, beforeNode, contentSummaryType);
+
+        if (afterSize == UNKNOWN_SIZE || beforeSize == UNKNOWN_SIZE) {
+            return UNKNOWN_SIZE;
+        }
+
+        return afterSize - beforeSize;
+    }
+
+    private static long getTotalSize(Namespace namespace, int node, ContentSummaryTypes contentSummaryType)
+    {
+        return node == Namespace.NONE ? 0 : NamespaceItem.getTotalSize(namespace, node, contentSummaryType);
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+        Iterator<List<Item>> batches = listChildren(1000);
+
+        while (batches.hasNext()) {
+            children.addAll(batches.next());
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public Iterator<List<Item>> listChildren(final int batchSize)
+    {
+        return new Iterator<List<Item>>()
+        {
+            private final Children beforeChildren = new Children(before, beforeNode);
+            private final Children afterChildren = new Children(after, afterNode);
+
+            @Override
+            public boolean hasNext()
+            {
+                return beforeChildren.name != null || afterChildren.name != null;
+            }
+
+            @Override
+            public List<Item> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<Item> batch = new ArrayList<Item>(batchSize);
+
+                while (hasNext() && batch.size() < batchSize) {
+                    int comparison;
+
+                    if (beforeChildren.name == null) {
+                        comparison = 1;
+                    }
+                    else if (afterChildren.name == null) {
+                        comparison = -1;
+                    }
+                    else {
+                        comparison = beforeChildren.name.compareTo(afterChildren.name);
+                    }
+
+                    int beforeChild = comparison <= 0 ? beforeChildren.node : Namespace.NONE;
+                    int afterChild = comparison >= 0 ? afterChildren.node : Namespace.NONE;
+
+                    batch.add(new DiffItem(before, beforeChild, after, afterChild, contentSummaryType));
+
+                    if (comparison <= 0) {
+                        beforeChildren.advance();
+                    }
+                    if (comparison >= 0) {
+                        afterChildren.advance();
+                    }
+                }
+
+                return batch;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Cursor over the children of a directory, in name order.
+     */
+    private static class Children
+    {
+        private final Namespace namespace;
+        // Only set if the siblings are not sorted
+        private int[] sorted = null;
+        private int position = 0;
+
+        private int node = Namespace.NONE;
+        private String name = null;
+
+        private Children(final Namespace namespace, int directory)
+        {
+            this.namespace = namespace;
+
+            if (directory == Namespace.NONE) {
+                return;
+            }
+
+            int first = namespace.getFirstChild(directory);
+
+            if (!isSorted(namespace, first)) {
+                List<Integer> children = new ArrayList<Integer>();
+
+                for (int child = first; child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                    children.add(child);
+                }
+
+                Collections.sort(children, new Comparator<Integer>()
+                {
+                    @Override
+                    public int compare(Integer lhs, Integer rhs)
+                    {
+                        return namespace.getName(lhs).compareTo(namespace.getName(rhs));
+                    }
+                });
+
+                sorted = new int[children.size()];
+
+                for (int i = 0; i < sorted.length; ++i) {
+                    sorted[i] = children.get(i);
+                }
+
+                node = sorted.length > 0 ? sorted[0] : Namespace.NONE;
+            }
+            else {
+                node = first;
+            }
+
+            name = node == Namespace.NONE ? null : namespace.getName(node);
+        }
+
+        private void advance()
+        {
+            if (sorted != null) {
+                node = ++position < sorted.length ? sorted[position] : Namespace.NONE;
+            }
+            else {
+                node = namespace.getNextSibling(node);
+            }
+
+            name = node == Namespace.NONE ? null : namespace.getName(node);
+        }
+
+        private static boolean isSorted(Namespace namespace, int first)
+        {
+            String previous = null;
+
+            for (int child = first; child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                String name = namespace.getName(child);
+
+                if (previous != null && previous.compareTo(name) >= 0) {
+                    return false;
+                }
+
+                previous = name;
+            }
+
+            return true;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof DiffItem)) {
+            return false;
+        }
+
+        DiffItem other = (DiffItem) o;
+
+        return before == other.before && beforeNode == other.beforeNode &&
+            after == other.after && afterNode == other.afterNode &&
+            contentSummaryType == other.contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * System.identityHashCode(after) + afterNode) + beforeNode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ":" + getTotalSize();
+    }
+}
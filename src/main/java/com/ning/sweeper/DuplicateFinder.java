@@ -0,0 +1,664 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the duplicate files under a directory of a {@link Namespace}, whose copies but one could
+ * be deleted.
+ * <p/>
+ * Files are first grouped by length, straight from the namespace: only those sharing their length
+ * with another file are candidates, and only their checksums are fetched, largest first so that
+ * most of the reclaimable space is confirmed early. A few threads pull the candidates one at a
+ * time through the throttled file system, so at most that many checksums are in flight. Empty
+ * files are ignored, there is nothing to reclaim.
+ * <p/>
+ * Files with the same length and checksum are duplicates: the lowest node is kept, the others are
+ * charged to their directories and ancestors. HDFS checksums depend on the block size, so copies
+ * written with another block size are missed, never confused. File systems without checksums
+ * (e.g. the local one) have their files read and hashed instead.
+ * <p/>
+ * Candidates are found on first use, by whichever background thread needs them (a fetcher, or a
+ * lister or fetch thread of the browser), never by the caller of {@link #start()}. Candidates and
+ * their ancestors are kept in sorted int arrays, the per-node state in arrays indexed alike.
+ * <p/>
+ * {@link #cancel()} stops fetching and {@link #start()} resumes with the candidates left. Checksums
+ * are also appended to an optional checkpoint file, read back by the next finder, so that
+ * restarting Sweeper doesn't fetch them again.
+ */
+public class DuplicateFinder
+{
+    private static final Logger log = Logger.getLogger(DuplicateFinder.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Metrics.Counter fetched = Metrics.counter("duplicates.fetched");
+    private static final Metrics.Counter resumed = Metrics.counter("duplicates.resumed");
+    private static final Metrics.Counter failed = Metrics.counter("duplicates.failed");
+
+    public static final int SPACE_CONSUMED = 0;
+    public static final int LENGTH = 1;
+    public static final int FILE_COUNT = 2;
+
+    private static final int FIELDS = 3;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final FileSystem fs;
+    private final Namespace namespace;
+    private final int root;
+    private final int threads;
+    private final File checkpoint;
+
+    // Set once by prepare, guarded by preparation until then
+    private final Object preparation = new Object();
+    private volatile boolean prepared = false;
+    // Candidates and their ancestors up to the root, sorted: a parent comes before its children
+    private int[] nodes;
+    // Slot in nodes of the parent of each node, -1 for the root
+    private int[] parentSlots;
+    // Slots of the files sharing their length with another one, largest first
+    private int[] candidates;
+    // By path
+    private Map<String, String> checkpointed;
+
+    // Guarded by this, indexed by candidate
+    private BitSet checked;
+    // Guarded by this, indexed by slot
+    private int[] pending;
+    private long[] reclaimable;
+    // Guarded by this
+    private final Map<String, Integer> kept = new HashMap<String, Integer>();
+    private Thread[] workers = new Thread[0];
+    private boolean running = false;
+    private int runningWorkers = 0;
+    private int run = 0;
+    // Run whose candidates left are counted in pending
+    private int pendingRun = 0;
+    private Writer checkpointWriter = null;
+
+    /**
+     * @param checkpoint null not to keep checksums across finders
+     */
+    public DuplicateFinder(FileSystem fs, Namespace namespace, int root, int threads, File checkpoint)
+    {
+        this.fs = fs;
+        this.namespace = namespace;
+        this.root = root;
+        this.threads = Math.max(1, threads);
+        this.checkpoint = checkpoint;
+    }
+
+    public Namespace getNamespace()
+    {
+        return namespace;
+    }
+
+    public int getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return true if the node is a candidate or has some under it
+     */
+    public boolean isSearched(int node)
+    {
+        prepare();
+
+        return Arrays.binarySearch(nodes, node) >= 0;
+    }
+
+    private void prepare()
+    {
+        if (prepared) {
+            return;
+        }
+
+        synchronized (preparation) {
+            if (prepared) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            long[] keys = findCandidates();
+            BitSet searched = new BitSet(namespace.size());
+
+            for (long key : keys) {
+                for (int node = (int) key; !searched.get(node); node = namespace.getParent(node)) {
+                    searched.set(node);
+
+                    if (node == root) {
+                        break;
+                    }
+                }
+            }
+
+            nodes = new int[searched.cardinality()];
+
+            for (int i = 0, node = searched.nextSetBit(0); node >= 0; ++i, node = searched.nextSetBit(node + 1)) {
+                nodes[i] = node;
+            }
+
+            parentSlots = new int[nodes.length];
+
+            for (int i = 0; i < nodes.length; ++i) {
+                parentSlots[i] = nodes[i] == root ? -1 : Arrays.binarySearch(nodes, namespace.getParent(nodes[i]));
+            }
+
+            candidates = new int[keys.length];
+
+            for (int i = 0; i < keys.length; ++i) {
+                candidates[i] = Arrays.binarySearch(nodes, (int) keys[i]);
+            }
+
+            checkpointed = readCheckpoint();
+
+            synchronized (this) {
+                checked = new BitSet(candidates.length);
+                pending = new int[nodes.length];
+                reclaimable = new long[nodes.length * FIELDS];
+            }
+
+            prepared = true;
+            log.info(String.format("%d files under [%s] share their length with another one (%d ms)",
+                candidates.length, getPath(root), System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * @return files sharing their length with another one, largest first, as the rank of their
+     *         length (in decreasing order) in the upper 32 bits and the node in the lower ones
+     */
+    private long[] findCandidates()
+    {
+        int[] files = new int[1024];
+        int fileCount = 0;
+        int[] stack = new int[64];
+        int depth = 0;
+
+        stack[depth++] = root;
+
+        while (depth > 0) {
+            int node = stack[--depth];
+
+            if (namespace.isDirectory(node)) {
+                for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+
+                    stack[depth++] = child;
+                }
+            }
+            else if (namespace.getLength(node) > 0) {
+                if (fileCount == files.length) {
+                    files = Arrays.copyOf(files, fileCount * 2);
+                }
+
+                files[fileCount++] = node;
+            }
+        }
+
+        // Lengths found more than once
+        long[] lengths = new long[fileCount];
+
+        for (int i = 0; i < fileCount; ++i) {
+            lengths[i] = namespace.getLength(files[i]);
+        }
+
+        Arrays.sort(lengths);
+
+        int sharedCount = 0;
+
+        for (int i = 1; i < fileCount; ++i) {
+            if (lengths[i] == lengths[i - 1] && (sharedCount == 0 || lengths[sharedCount - 1] != lengths[i])) {
+                // Compacted in place, the slots before i are no longer needed
+                lengths[sharedCount++] = lengths[i];
+            }
+        }
+
+        long[] shared = Arrays.copyOf(lengths, sharedCount);
+        long[] keys = new long[fileCount];
+        int candidateCount = 0;
+
+        for (int i = 0; i < fileCount; ++i) {
+            int rank = Arrays.binarySearch(shared, namespace.getLength(files[i]));
+
+            if (rank >= 0) {
+                keys[candidateCount++] = ((long) (sharedCount - 1 - rank) << 32) | files[i];
+            }
+        }
+
+        keys = Arrays.copyOf(keys, candidateCount);
+        Arrays.sort(keys);
+
+        return keys;
+    }
+
+    private Map<String, String> readCheckpoint()
+    {
+        Map<String, String> checksums = new HashMap<String, String>();
+
+        if (checkpoint == null || !checkpoint.exists()) {
+            return checksums;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), UTF_8));
+
+            try {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.lastIndexOf('\t');
+
+                    // A line may be truncated if the previous finder was killed while writing
+                    if (separator > 0) {
+                        checksums.put(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            log.warn(String.format("Failed to read checkpoint [%s], fetching all checksums (%s)", checkpoint, e));
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Fetch the checksums not known yet in the background. Does nothing if already running.
+     */
+    public synchronized void start()
+    {
+        if (running) {
+            return;
+        }
+
+        final int currentRun = ++run;
+        final AtomicInteger next = new AtomicInteger();
+
+        running = true;
+        workers = new Thread[threads];
+        runningWorkers = threads;
+
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        work(currentRun, next);
+                    }
+                    finally {
+                        finished(currentRun);
+                    }
+                }
+            }, "sweeper-duplicates-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stop fetching, the checksums already fetched are kept. Waiting items get the space found
+     * so far.
+     */
+    public synchronized void cancel()
+    {
+        if (!running) {
+            return;
+        }
+
+        run++;
+        running = false;
+        runningWorkers = 0;
+
+        // Whatever the workers are doing now is discarded
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        closeCheckpoint();
+        notifyAll();
+    }
+
+    private void work(int currentRun, AtomicInteger next)
+    {
+        prepare();
+
+        synchronized (this) {
+            if (!isCurrent(currentRun)) {
+                return;
+            }
+
+            if (pendingRun != currentRun) {
+                countPending();
+                pendingRun = currentRun;
+                openCheckpoint();
+                notifyAll();
+            }
+        }
+
+        int i;
+
+        while (isCurrent(currentRun) && (i = next.getAndIncrement()) < candidates.length) {
+            synchronized (this) {
+                if (checked.get(i)) {
+                    continue;
+                }
+            }
+
+            int file = nodes[candidates[i]];
+            String path = getPath(file);
+            String checksum = checkpointed.get(path);
+
+            try {
+                if (checksum == null) {
+                    checksum = namespace.getLength(file) + "/" + getChecksum(new Path(path));
+                    fetched.increment();
+                }
+                else {
+                    resumed.increment();
+                }
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    // Cancelled fetches are retried by the next run
+                    if (isCurrent(currentRun)) {
+                        log.warn(String.format("Failed to get checksum of [%s] (%s)", path, e));
+                        failed.increment();
+                        resolved(candidates[i]);
+                    }
+                }
+
+                continue;
+            }
+
+            found(i, path, checksum);
+        }
+    }
+
+    // Called with the lock held
+    private void countPending()
+    {
+        Arrays.fill(pending, 0);
+
+        for (int i = 0; i < candidates.length; ++i) {
+            if (!checked.get(i)) {
+                pending[candidates[i]] = 1;
+            }
+        }
+
+        // Children come after their parent
+        for (int slot = nodes.length - 1; slot > 0; --slot) {
+            if (parentSlots[slot] >= 0) {
+                pending[parentSlots[slot]] += pending[slot];
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(int currentRun)
+    {
+        return run == currentRun;
+    }
+
+    private String getChecksum(Path path) throws IOException
+    {
+        FileChecksum checksum = fs.getFileChecksum(path);
+
+        if (checksum != null) {
+            return checksum.getAlgorithmName() + "/" + toHex(checksum.getBytes());
+        }
+
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        InputStream in = fs.open(path);
+
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException(String.format("Interrupted while reading [%s]", path));
+                }
+
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return "MD5/" + toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return builder.toString();
+    }
+
+    private synchronized void found(int candidate, String path, String checksum)
+    {
+        // A cancelled worker's checksum is still right, unless another worker got it first
+        if (checked.get(candidate)) {
+            return;
+        }
+
+        checked.set(candidate);
+
+        if (checkpointWriter != null && !checkpointed.containsKey(path)) {
+            try {
+                checkpointWriter.write(path + "\t" + checksum + "\n");
+                checkpointWriter.flush();
+            }
+            catch (IOException e) {
+                log.warn(String.format("Failed to write checkpoint [%s] (%s)", checkpoint, e));
+            }
+        }
+
+        int file = nodes[candidates[candidate]];
+        Integer keeper = kept.get(checksum);
+
+        if (keeper == null) {
+            kept.put(checksum, file);
+        }
+        else if (file < keeper) {
+            kept.put(checksum, file);
+            charge(keeper);
+        }
+        else {
+            charge(file);
+        }
+
+        // Counted as pending if the current run counted after this worker's run
+        if (pendingRun == run) {
+            resolved(candidates[candidate]);
+        }
+    }
+
+    // Called with the lock held
+    private void charge(int file)
+    {
+        for (int slot = Arrays.binarySearch(nodes, file); slot >= 0; slot = parentSlots[slot]) {
+            reclaimable[slot * FIELDS + SPACE_CONSUMED] += namespace.getSpaceConsumed(file);
+            reclaimable[slot * FIELDS + LENGTH] += namespace.getLength(file);
+            reclaimable[slot * FIELDS + FILE_COUNT]++;
+        }
+    }
+
+    private synchronized void resolved(int fileSlot)
+    {
+        boolean done = false;
+
+        for (int slot = fileSlot; slot >= 0; slot = parentSlots[slot]) {
+            if (pending[slot] > 0 && --pending[slot] == 0) {
+                done = true;
+            }
+        }
+
+        if (done) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void finished(int currentRun)
+    {
+        if (!isCurrent(currentRun) || --runningWorkers > 0) {
+            return;
+        }
+
+        running = false;
+        closeCheckpoint();
+        log.info(String.format("Checked %d of %d candidates under [%s]: %d bytes reclaimable",
+            checked.cardinality(), candidates.length, getPath(root), getSlotReclaimable(Arrays.binarySearch(nodes, root), SPACE_CONSUMED)));
+        notifyAll();
+    }
+
+    // Called with the lock held
+    private void openCheckpoint()
+    {
+        if (checkpoint == null) {
+            return;
+        }
+
+        try {
+            checkpointWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(checkpoint, true), UTF_8));
+        }
+        catch (IOException e) {
+            log.warn(String.format("Failed to open checkpoint [%s], checksums won't be kept (%s)", checkpoint, e));
+        }
+    }
+
+    // Called with the lock held
+    private void closeCheckpoint()
+    {
+        if (checkpointWriter == null) {
+            return;
+        }
+
+        try {
+            checkpointWriter.close();
+        }
+        catch (IOException e) {
+            log.warn(String.format("Failed to close checkpoint [%s] (%s)", checkpoint, e));
+        }
+
+        checkpointWriter = null;
+    }
+
+    /**
+     * Wait until every candidate under the node is checked, or fetching stops
+     */
+    public void await(int node)
+    {
+        prepare();
+
+        int slot = Arrays.binarySearch(nodes, node);
+
+        if (slot < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            while (running && (pendingRun != run || pending[slot] > 0)) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param field one of {@link #SPACE_CONSUMED}, {@link #LENGTH} or {@link #FILE_COUNT}
+     * @return what deleting the duplicates under the node (but one copy of each) would free
+     */
+    public long getReclaimable(int node, int field)
+    {
+        prepare();
+
+        int slot = Arrays.binarySearch(nodes, node);
+
+        synchronized (this) {
+            return getSlotReclaimable(slot, field);
+        }
+    }
+
+    // Called with the lock held
+    private long getSlotReclaimable(int slot, int field)
+    {
+        return slot < 0 ? 0 : reclaimable[slot * FIELDS + field];
+    }
+
+    private String getPath(int node)
+    {
+        StringBuilder path = new StringBuilder();
+
+        for (; node != Namespace.ROOT; node = namespace.getParent(node)) {
+            path.insert(0, namespace.getName(node)).insert(0, '/');
+        }
+
+        String rootPath = namespace.getRootPath();
+
+        return rootPath.endsWith("/") && path.length() > 0 ? rootPath + path.substring(1) : rootPath + path;
+    }
+}
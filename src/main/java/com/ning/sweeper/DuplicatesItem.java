@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+/**
+ * Space that deleting duplicate files would free under a {@link Namespace} node, as found by a
+ * {@link DuplicateFinder}. Sizes block until every candidate under the node is checked, so the
+ * browser fills in directories as their checksums come back; only directories with candidates
+ * under them are listed.
+ */
+public class DuplicatesItem implements Item
+{
+    private final DuplicateFinder finder;
+    private final int node;
+    private final ContentSummaryTypes contentSummaryType;
+
+    public DuplicatesItem(DuplicateFinder finder, int node, ContentSummaryTypes contentSummaryType)
+    {
+        this.finder = finder;
+        this.node = node;
+        this.contentSummaryType = contentSummaryType;
+    }
+
+    @Override
+    public String getName()
+    {
+        Namespace namespace = finder.getNamespace();
+        String name = namespace.getName(node);
+
+        return namespace.isDirectory(node) ? "/" + name : name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        finder.await(node);
+
+        switch (contentSummaryType) {
+            case SPACE_USED:
+                return finder.getReclaimable(node, DuplicateFinder.SPACE_CONSUMED);
+            case LENGTH:
+                return finder.getReclaimable(node, DuplicateFinder.LENGTH);
+            case NUMBER_OF_FILES:
+                return finder.getReclaimable(node, DuplicateFinder.FILE_COUNT);
+            case AVERAGE_FILE_SIZE:
+                long files = finder.getReclaimable(node, DuplicateFinder.FILE_COUNT);
+
+                return files == 0 ? 0 : finder.getReclaimable(node, DuplicateFinder.LENGTH) / files;
+            default:
+                return Item.UNKNOWN_SIZE;
+        }
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        Namespace namespace = finder.getNamespace();
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+
+        if (namespace.isDirectory(node)) {
+            for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                if (finder.isSearched(child)) {
+                    children.add(new DuplicatesItem(finder, child, contentSummaryType));
+                }
+            }
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof DuplicatesItem)) {
+            return false;
+        }
+
+        DuplicatesItem other = (DuplicatesItem) o;
+
+        return finder == other.finder && node == other.node && contentSummaryType == other.contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * System.identityHashCode(finder) + node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ":" + getTotalSize();
+    }
+}
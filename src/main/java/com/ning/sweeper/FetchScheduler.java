@@ -0,0 +1,421 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fetches item sizes on a fixed number of worker threads.
+ * <p/>
+ * Requests are made on behalf of a {@link Group} (one per column). The newest group is served
+ * first, starting with the items it marked as visible, then the rest in submission order; older
+ * groups only get the leftover capacity. Duplicate requests for the same item share a single
+ * fetch, queued by the newest group requesting it, and a whole group can be cancelled at once.
+ */
+public class FetchScheduler
+{
+    private static final Logger log = Logger.getLogger(FetchScheduler.class.getName());
+
+    private static final Metrics.Latency fetchLatency = Metrics.latency("fetch.latency");
+    private static final Metrics.Counter submitted = Metrics.counter("fetch.submitted");
+    private static final Metrics.Counter shared = Metrics.counter("fetch.shared");
+    private static final Metrics.Counter cancelled = Metrics.counter("fetch.cancelled");
+    private static final Metrics.Counter failed = Metrics.counter("fetch.failed");
+
+    public interface Listener
+    {
+        public void started();
+
+        public void fetched(long size);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    // Oldest first
+    private final List<Group> groups = new ArrayList<Group>();
+    private final Map<Item, Fetch> fetches = new HashMap<Item, Fetch>();
+    private int running = 0;
+    private int createdGroups = 0;
+
+    public FetchScheduler(int workers)
+    {
+        Metrics.gauge("fetch.queued", new Metrics.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                lock.lock();
+
+                try {
+                    return fetches.size() - running;
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        });
+        Metrics.gauge("fetch.running", new Metrics.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                lock.lock();
+
+                try {
+                    return running;
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        for (int i = 0; i < workers; ++i) {
+            Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    work();
+                }
+            }, "sweeper-fetch-" + i);
+
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public Group newGroup()
+    {
+        lock.lock();
+
+        try {
+            Group group = new Group(createdGroups++);
+
+            groups.add(group);
+
+            return group;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until no fetch is queued or running, for background work not to compete with them
+     */
+    public void awaitIdle() throws InterruptedException
+    {
+        lock.lock();
+
+        try {
+            while (!fetches.isEmpty()) {
+                idle.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public class Group
+    {
+        private final ArrayDeque<Fetch> visible = new ArrayDeque<Fetch>();
+        private final ArrayDeque<Fetch> pending = new ArrayDeque<Fetch>();
+        private final Map<Item, Fetch> fetches = new HashMap<Item, Fetch>();
+        private final int order;
+        private boolean cancelled = false;
+
+        private Group(int order)
+        {
+            this.order = order;
+        }
+
+        public void submit(Item item, Listener listener)
+        {
+            lock.lock();
+
+            try {
+                if (cancelled) {
+                    return;
+                }
+
+                Fetch fetch = FetchScheduler.this.fetches.get(item);
+
+                submitted.increment();
+
+                if (fetch == null) {
+                    fetch = new Fetch(item, this);
+                    FetchScheduler.this.fetches.put(item, fetch);
+                    pending.add(fetch);
+                    available.signal();
+                }
+                else {
+                    shared.increment();
+
+                    if (fetch.running) {
+                        listener.started();
+                    }
+                    else if (order > fetch.owner.order) {
+                        // Take it over from the older group, for it not to wait behind that group's queue
+                        fetch.owner = this;
+                        pending.add(fetch);
+                        available.signal();
+                    }
+                }
+
+                fetch.listeners.add(new Subscription(this, listener));
+                fetches.put(item, fetch);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Serve these items before the other ones of this group. Replaces the previous call.
+         */
+        public void prioritize(Collection<? extends Item> items)
+        {
+            lock.lock();
+
+            try {
+                visible.clear();
+
+                for (Item item : items) {
+                    Fetch fetch = fetches.get(item);
+
+                    if (fetch != null && fetch.owner == this && !fetch.running && !fetch.done) {
+                        visible.add(fetch);
+                    }
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drop all pending fetches of this group, and interrupt the running ones nobody else waits for.
+         */
+        public void cancel()
+        {
+            lock.lock();
+
+            try {
+                cancelled = true;
+                groups.remove(this);
+
+                for (Fetch fetch : fetches.values()) {
+                    fetch.unsubscribe(this);
+                }
+
+                fetches.clear();
+                visible.clear();
+                pending.clear();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        private Fetch poll()
+        {
+            Fetch fetch = poll(visible);
+
+            return fetch != null ? fetch : poll(pending);
+        }
+
+        private Fetch poll(ArrayDeque<Fetch> queue)
+        {
+            Fetch fetch;
+
+            // Skip stale entries: already running, done, or moved to another group
+            while ((fetch = queue.poll()) != null) {
+                if (!fetch.running && !fetch.done && fetch.owner == this) {
+                    return fetch;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static class Subscription
+    {
+        private final Group group;
+        private final Listener listener;
+
+        private Subscription(Group group, Listener listener)
+        {
+            this.group = group;
+            this.listener = listener;
+        }
+    }
+
+    private class Fetch
+    {
+        private final Item item;
+        private final List<Subscription> listeners = new ArrayList<Subscription>(1);
+        private Group owner;
+        private Thread worker = null;
+        private boolean running = false;
+        private boolean done = false;
+
+        private Fetch(Item item, Group owner)
+        {
+            this.item = item;
+            this.owner = owner;
+        }
+
+        // Called with the lock held
+        private void unsubscribe(Group group)
+        {
+            for (int i = listeners.size() - 1; i >= 0; --i) {
+                if (listeners.get(i).group == group) {
+                    listeners.remove(i);
+                }
+            }
+
+            if (listeners.isEmpty()) {
+                done = true;
+                FetchScheduler.this.fetches.remove(item);
+                cancelled.increment();
+                signalIfIdle();
+
+                if (worker != null) {
+                    worker.interrupt();
+                }
+            }
+            else if (owner == group) {
+                // Hand the fetch over to the newest group still interested in it
+                owner = listeners.get(0).group;
+
+                for (Subscription subscription : listeners) {
+                    if (subscription.group.order > owner.order) {
+                        owner = subscription.group;
+                    }
+                }
+
+                if (!running) {
+                    owner.pending.add(this);
+                    available.signal();
+                }
+            }
+        }
+    }
+
+    private void work()
+    {
+        while (true) {
+            Fetch fetch;
+            List<Subscription> listeners;
+
+            lock.lock();
+
+            try {
+                while ((fetch = poll()) == null) {
+                    available.awaitUninterruptibly();
+                }
+
+                fetch.running = true;
+                fetch.worker = Thread.currentThread();
+                running++;
+                listeners = new ArrayList<Subscription>(fetch.listeners);
+            }
+            finally {
+                lock.unlock();
+            }
+
+            for (Subscription subscription : listeners) {
+                subscription.listener.started();
+            }
+
+            long start = System.nanoTime();
+            long size;
+
+            try {
+                size = fetch.item.getTotalSize();
+            }
+            catch (Exception e) {
+                log.warn(String.format("Failed to fetch [%s] (%s)", fetch.item, e.getCause()));
+                failed.increment();
+                size = Item.UNKNOWN_SIZE;
+            }
+
+            fetchLatency.record(System.nanoTime() - start);
+
+            lock.lock();
+
+            try {
+                fetch.worker = null;
+                running--;
+                // Don't let a late cancellation interrupt the next fetch
+                Thread.interrupted();
+
+                if (fetch.done) {
+                    continue;
+                }
+
+                fetch.done = true;
+                fetches.remove(fetch.item);
+                signalIfIdle();
+                listeners = new ArrayList<Subscription>(fetch.listeners);
+            }
+            finally {
+                lock.unlock();
+            }
+
+            for (Subscription subscription : listeners) {
+                subscription.listener.fetched(size);
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void signalIfIdle()
+    {
+        if (fetches.isEmpty()) {
+            idle.signalAll();
+        }
+    }
+
+    // Called with the lock held
+    private Fetch poll()
+    {
+        for (int i = groups.size() - 1; i >= 0; --i) {
+            Fetch fetch = groups.get(i).poll();
+
+            if (fetch != null) {
+                return fetch;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+/**
+ * Fixed-size histogram of space consumed by file age, i.e. the time since a file was last read
+ * or written (HDFS only records reads if dfs.access.time.precision is set), as of the crawl.
+ * <p/>
+ * Buckets are bounded by 7, 30, 90, 180, 365 and 730 days: the horizons cleanups are decided on.
+ * Histograms are plain long arrays of {@link #BUCKETS} entries, merged by adding them up. Files
+ * whose times are unknown are counted as recent, so that they are never reported as cold.
+ */
+public final class FileAgeHistogram
+{
+    private static final int[] BOUNDS_DAYS = {7, 30, 90, 180, 365, 730};
+
+    public static final int BUCKETS = BOUNDS_DAYS.length + 1;
+
+    public static final long MILLIS_PER_DAY = 24L * 3600 * 1000;
+
+    private FileAgeHistogram()
+    {
+    }
+
+    /**
+     * @return the day a file was last touched, 0 if unknown
+     */
+    public static int getDay(long accessTime, long modificationTime)
+    {
+        return (int) (Math.max(accessTime, modificationTime) / MILLIS_PER_DAY);
+    }
+
+    public static int getToday()
+    {
+        return (int) (System.currentTimeMillis() / MILLIS_PER_DAY);
+    }
+
+    /**
+     * @param day      last touched, as returned by {@link #getDay}
+     * @param asOfDay  day of the crawl
+     */
+    public static int getBucket(int day, int asOfDay)
+    {
+        if (day <= 0) {
+            return 0;
+        }
+
+        int age = asOfDay - day;
+        int bucket = 0;
+
+        while (bucket < BOUNDS_DAYS.length && age >= BOUNDS_DAYS[bucket]) {
+            bucket++;
+        }
+
+        return bucket;
+    }
+
+    /**
+     * @return the smallest age in the bucket, in days
+     */
+    public static int getLowerBound(int bucket)
+    {
+        return bucket == 0 ? 0 : BOUNDS_DAYS[bucket - 1];
+    }
+
+    /**
+     * @param days one of the bucket bounds
+     * @return space consumed by files not touched for at least that many days,
+     * {@link Item#UNKNOWN_SIZE} if ages were not recorded
+     */
+    public static long getColdSpace(Namespace namespace, int node, int days)
+    {
+        if (!namespace.hasAges()) {
+            return Item.UNKNOWN_SIZE;
+        }
+
+        long space = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            if (getLowerBound(bucket) >= days) {
+                space += namespace.getSpaceConsumed(node, bucket);
+            }
+        }
+
+        return space;
+    }
+}
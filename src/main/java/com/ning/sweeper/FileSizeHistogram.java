@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+/**
+ * Fixed-size, log-bucketed histogram of file lengths.
+ * <p/>
+ * Bucket 0 holds empty files, bucket i holds files in [4^(i-1), 4^i) bytes and the last bucket
+ * everything from 256MB up. Histograms are plain int arrays of {@link #BUCKETS} entries, so they
+ * can be stored side by side and merged by adding them up.
+ */
+public final class FileSizeHistogram
+{
+    public static final int BUCKETS = 16;
+
+    // Default HDFS block size: anything smaller costs the namenode as much as a full block
+    public static final long SMALL_FILE_LENGTH = 64L << 20;
+
+    private FileSizeHistogram()
+    {
+    }
+
+    public static int getBucket(long length)
+    {
+        if (length <= 0) {
+            return 0;
+        }
+
+        return Math.min(BUCKETS - 1, (63 - Long.numberOfLeadingZeros(length)) / 2 + 1);
+    }
+
+    /**
+     * @return the smallest length in the bucket
+     */
+    public static long getLowerBound(int bucket)
+    {
+        return bucket == 0 ? 0 : 1L << (2 * (bucket - 1));
+    }
+
+    /**
+     * @return number of files strictly smaller than {@link #SMALL_FILE_LENGTH}
+     */
+    public static long getSmallFileCount(Namespace namespace, int node)
+    {
+        long count = 0;
+
+        // Exact, as the threshold is a bucket bound
+        for (int bucket = 0; bucket < getBucket(SMALL_FILE_LENGTH); ++bucket) {
+            count += namespace.getFileCount(node, bucket);
+        }
+
+        return count;
+    }
+}
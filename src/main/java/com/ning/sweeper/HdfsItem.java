@@ -18,43 +18,58 @@ package com.ning.sweeper;
 
 import com.google.common.collect.ImmutableList;
 import com.ning.sweeper.config.ContentSummaryTypes;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
-public class HdfsItem implements Item
+public class HdfsItem implements PagedItem, CachedItem
 {
     private final static Logger log = Logger.getLogger(HdfsItem.class.getName());
 
     private final FileSystem fs;
     private final Path path;
     private final String name;
-    private volatile Long totalSize = null;
-
-    private volatile ImmutableList<Item> children;
+    private final boolean isDirectory;
     private final ContentSummaryTypes contentSummaryType;
+    private final ItemCache cache;
+
+    // Totals of a ContentSummary, kept while the item is displayed even if evicted from the cache
+    private static final int SPACE_CONSUMED = 0;
+    private static final int LENGTH = 1;
+    private static final int FILE_COUNT = 2;
+    private static final int DIRECTORY_COUNT = 3;
+    private static final int QUOTA = 4;
+    private static final int SPACE_QUOTA = 5;
+    private static final long[] FAILED = new long[0];
+
+    private volatile long[] summary = null;
+
+    public HdfsItem(FileSystem fs, String path, ContentSummaryTypes contentSummaryType, ItemCache cache) throws IOException
+    {
+        this(fs, fs.getFileStatus(new Path(path)), contentSummaryType, cache);
+    }
 
     public HdfsItem(FileSystem fs, String path, ContentSummaryTypes contentSummaryType) throws IOException
     {
-        this(fs, fs.getFileStatus(new Path(path)), contentSummaryType);
+        this(fs, path, contentSummaryType, new ItemCache(Long.MAX_VALUE));
     }
 
-    private HdfsItem(FileSystem fs, FileStatus status, ContentSummaryTypes contentSummaryType) throws IOException
+    private HdfsItem(FileSystem fs, FileStatus status, ContentSummaryTypes contentSummaryType, ItemCache cache)
     {
         this.fs = fs;
         this.path = status.getPath();
+        this.isDirectory = status.isDir();
+        this.name = isDirectory ? "/" + path.getName() : path.getName();
         this.contentSummaryType = contentSummaryType;
-
-        if (status.isDir()) {
-            this.name = "/" + path.getName();
-        }
-        else {
-            this.name = path.getName();
-            this.children = ImmutableList.of();
-        }
+        this.cache = cache;
     }
 
     @Override
@@ -66,53 +81,208 @@ public class HdfsItem implements Item
     @Override
     public long getTotalSize()
     {
-        if (totalSize == null) {
-            try {
-                switch (contentSummaryType) {
-                    case SPACE_USED:
-                        totalSize = fs.getContentSummary(path).getSpaceConsumed();
-                        break;
-                    case NUMBER_OF_FILES:
-                        totalSize = fs.getContentSummary(path).getFileCount();
-                        break;
-                    default:
-                        throw new IllegalArgumentException(String.format("Don't know what to look for (%s)", contentSummaryType));
+        return getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        long[] summary = getSummary();
+
+        if (summary == FAILED) {
+            return UNKNOWN_SIZE;
+        }
+
+        switch (contentSummaryType) {
+            case SPACE_USED:
+                return summary[SPACE_CONSUMED];
+            case NUMBER_OF_FILES:
+                return summary[FILE_COUNT];
+            case AVERAGE_FILE_SIZE:
+                return summary[FILE_COUNT] == 0 ? 0 : summary[LENGTH] / summary[FILE_COUNT];
+            case LENGTH:
+                return summary[LENGTH];
+            case NUMBER_OF_DIRECTORIES:
+                return summary[DIRECTORY_COUNT];
+            case QUOTA:
+                // -1 when not set
+                return summary[QUOTA] < 0 ? UNKNOWN_SIZE : summary[QUOTA];
+            case SPACE_QUOTA:
+                return summary[SPACE_QUOTA] < 0 ? UNKNOWN_SIZE : summary[SPACE_QUOTA];
+            default:
+                // File size and age breakdowns and block counts need a crawl
+                return UNKNOWN_SIZE;
+        }
+    }
+
+    /**
+     * All the totals are kept from a single getContentSummary, so that switching from one to
+     * another doesn't query the namenode again. A failure is only retried by a new item.
+     */
+    private long[] getSummary()
+    {
+        if (summary == null) {
+            long[] cached = cache.getSummary(path);
+
+            if (cached == null) {
+                try {
+                    ContentSummary contentSummary = fs.getContentSummary(path);
+
+                    cached = new long[]{
+                        contentSummary.getSpaceConsumed(),
+                        contentSummary.getLength(),
+                        contentSummary.getFileCount(),
+                        contentSummary.getDirectoryCount(),
+                        contentSummary.getQuota(),
+                        contentSummary.getSpaceQuota()
+                    };
                 }
+                catch (IOException e) {
+                    log.warn(String.format("Failed to get size of [%s] (%s)", path, e.getCause()));
+                    summary = FAILED;
 
+                    return FAILED;
+                }
+
+                cache.putSummary(path, cached);
             }
-            catch (IOException e) {
-                log.warn(String.format("Failed to get size of [%s] (%s)", path, e.getCause()));
-                return -1L;
-            }
+
+            summary = cached;
         }
 
-        return totalSize;
+        return summary;
     }
 
     @Override
     public ImmutableList<Item> getChildren()
     {
-        if (children == null) {
-            ImmutableList.Builder<Item> children = ImmutableList.builder();
+        if (!isDirectory) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+
+        for (FileStatus status : list()) {
+            children.add(new HdfsItem(fs, status, contentSummaryType, cache));
+        }
+
+        return children.build();
+    }
+
+    /**
+     * Hadoop 0.20 has no partial listing: the directory is still listed with a single RPC, but
+     * children are wrapped and handed out batch by batch.
+     */
+    @Override
+    public Iterator<List<Item>> listChildren(final int batchSize)
+    {
+        return new Iterator<List<Item>>()
+        {
+            private FileStatus[] statuses = null;
+            private boolean cached = false;
+            private int position = 0;
 
-            try {
-                for (FileStatus status : fs.listStatus(path)) {
-                    children.add(new HdfsItem(fs, status, contentSummaryType));
+            @Override
+            public boolean hasNext()
+            {
+                if (statuses == null) {
+                    statuses = isDirectory ? cache.getListing(path) : new FileStatus[0];
+                    cached = statuses != null;
+
+                    if (statuses == null) {
+                        statuses = listStatus();
+                        cached = cache.putListing(path, statuses);
+                    }
                 }
+
+                return position < statuses.length;
             }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+
+            @Override
+            public List<Item> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int end = Math.min(statuses.length, position + batchSize);
+                List<Item> batch = new ArrayList<Item>(end - position);
+
+                while (position < end) {
+                    batch.add(new HdfsItem(fs, statuses[position], contentSummaryType, cache));
+
+                    if (!cached) {
+                        // Too large to be cached: let the FileStatus be collected
+                        statuses[position] = null;
+                    }
+
+                    position++;
+                }
+
+                return batch;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
             }
+        };
+    }
+
+    @Override
+    public void pin()
+    {
+        cache.pin(path);
+    }
+
+    @Override
+    public void unpin()
+    {
+        cache.unpin(path);
+    }
+
+    private FileStatus[] list()
+    {
+        FileStatus[] statuses = cache.getListing(path);
+
+        if (statuses == null) {
+            statuses = listStatus();
+            cache.putListing(path, statuses);
+        }
+
+        return statuses;
+    }
+
+    private FileStatus[] listStatus()
+    {
+        FileStatus[] statuses;
 
-            this.children = children.build();
+        try {
+            statuses = fs.listStatus(path);
         }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return statuses == null ? new FileStatus[0] : statuses;
+    }
 
-        return children;
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof HdfsItem && path.equals(((HdfsItem) o).path) && contentSummaryType == ((HdfsItem) o).contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return path.hashCode();
     }
 
     @Override
     public String toString()
     {
-        return name + ":" + totalSize;
+        return name + ":" + (summary == null || summary == FAILED ? UNKNOWN_SIZE : getTotalSize());
     }
 }
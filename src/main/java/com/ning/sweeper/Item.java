@@ -17,12 +17,27 @@
 package com.ning.sweeper;
 
 import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
 
 public interface Item
 {
+    /**
+     * Returned by {@link #getTotalSize()} when the size couldn't be computed. Sizes can be negative
+     * (e.g. deltas between two snapshots).
+     */
+    public static final long UNKNOWN_SIZE = Long.MIN_VALUE;
+
     public String getName();
 
     public long getTotalSize();
 
+    /**
+     * Size by another measure than the one the item was created with. Once {@link #getTotalSize()}
+     * has returned, this doesn't query the namenode again.
+     *
+     * @return the size, or {@link #UNKNOWN_SIZE} if not available for this kind of item
+     */
+    public long getTotalSize(ContentSummaryTypes contentSummaryType);
+
     public ImmutableList<Item> getChildren();
 }
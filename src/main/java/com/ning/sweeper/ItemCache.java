@@ -0,0 +1,254 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of directory listings and content summaries, shared by a tree of {@link HdfsItem}s so that
+ * collapsing and expanding a directory doesn't query the namenode again.
+ * <p/>
+ * Every summary weighs 1, every listing 1 per child. Past the budget, least recently used entries
+ * are evicted in two steps: their listing is dropped first, keeping the summary (so that the
+ * parent column can still be sorted without RPC), then the summary itself. Items on display keep
+ * their own summary, evictions only cost a new RPC once they are collapsed. Entries of the
+ * directories open as columns are pinned, and skipped by evictions until their column is closed:
+ * the cache may then weigh more than its budget.
+ */
+public class ItemCache
+{
+    private static final Metrics.Counter hits = Metrics.counter("item.cache.hits");
+    private static final Metrics.Counter misses = Metrics.counter("item.cache.misses");
+    private static final Metrics.Counter evictions = Metrics.counter("item.cache.evictions");
+    // Of all caches
+    private static final AtomicLong totalWeight = new AtomicLong();
+
+    static {
+        Metrics.gauge("item.cache.weight", new Metrics.Gauge()
+        {
+            @Override
+            public long getValue()
+            {
+                return totalWeight.get();
+            }
+        });
+    }
+
+    private final long maxWeight;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access ordered: least recently used first
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+    // Pin count by path
+    private final Map<Path, Integer> pins = new HashMap<Path, Integer>();
+    private long weight = 0;
+
+    private static class Entry
+    {
+        private long[] summary = null;
+        private FileStatus[] listing = null;
+
+        private long weight()
+        {
+            return 1 + (listing == null ? 0 : listing.length);
+        }
+    }
+
+    public ItemCache(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cached summary, or null. Not to be modified.
+     */
+    public long[] getSummary(Path path)
+    {
+        lock.lock();
+
+        try {
+            Entry entry = entries.get(path);
+            long[] summary = entry == null ? null : entry.summary;
+
+            (summary == null ? misses : hits).increment();
+
+            return summary;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void putSummary(Path path, long[] summary)
+    {
+        lock.lock();
+
+        try {
+            getOrCreate(path).summary = summary;
+            evict();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the cached listing, or null. Not to be modified.
+     */
+    public FileStatus[] getListing(Path path)
+    {
+        lock.lock();
+
+        try {
+            Entry entry = entries.get(path);
+            FileStatus[] listing = entry == null ? null : entry.listing;
+
+            (listing == null ? misses : hits).increment();
+
+            return listing;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the listing is too large to be cached
+     */
+    public boolean putListing(Path path, FileStatus[] listing)
+    {
+        // It would evict everything else
+        if (listing.length + 1 > maxWeight / 2) {
+            return false;
+        }
+
+        lock.lock();
+
+        try {
+            Entry entry = getOrCreate(path);
+
+            addWeight(-entry.weight());
+            entry.listing = listing;
+            addWeight(entry.weight());
+            evict();
+
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private Entry getOrCreate(Path path)
+    {
+        Entry entry = entries.get(path);
+
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(path, entry);
+            addWeight(entry.weight());
+        }
+
+        return entry;
+    }
+
+    /**
+     * Keep the listing and summary of this path, cached now or later, until unpinned as many times
+     */
+    public void pin(Path path)
+    {
+        lock.lock();
+
+        try {
+            Integer count = pins.get(path);
+
+            pins.put(path, count == null ? 1 : count + 1);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void unpin(Path path)
+    {
+        lock.lock();
+
+        try {
+            Integer count = pins.get(path);
+
+            if (count == null) {
+                return;
+            }
+
+            if (count == 1) {
+                pins.remove(path);
+                // Back under budget, if it went over while pinned
+                evict();
+            }
+            else {
+                pins.put(path, count - 1);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void addWeight(long delta)
+    {
+        weight += delta;
+        totalWeight.addAndGet(delta);
+    }
+
+    // Called with the lock held
+    private void evict()
+    {
+        Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<Path, Entry> next = iterator.next();
+
+            if (pins.containsKey(next.getKey())) {
+                continue;
+            }
+
+            Entry entry = next.getValue();
+
+            addWeight(-entry.weight());
+
+            if (entry.listing != null) {
+                entry.listing = null;
+                addWeight(entry.weight());
+            }
+            else {
+                iterator.remove();
+            }
+
+            evictions.increment();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only mapping of a whole file, which may be larger than the 2GB a single
+ * MappedByteBuffer can address. Nothing is read until a page is accessed.
+ * <p/>
+ * The file is mapped in chunks whose size is a multiple of 8: ints and longs aligned on their
+ * size never straddle two chunks.
+ */
+class MappedFile
+{
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    MappedFile(FileChannel channel) throws IOException
+    {
+        this.length = channel.size();
+        this.chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+
+        for (int i = 0; i < chunks.length; ++i) {
+            long position = (long) i << CHUNK_SHIFT;
+
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_MASK + 1, length - position));
+        }
+    }
+
+    long length()
+    {
+        return length;
+    }
+
+    byte getByte(long position)
+    {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK));
+    }
+
+    int getInt(long position)
+    {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    long getLong(long position)
+    {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].getLong((int) (position & CHUNK_MASK));
+    }
+
+    void getBytes(long position, byte[] destination, int length)
+    {
+        for (int i = 0; i < length; ++i) {
+            destination[i] = getByte(position + i);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * {@link Namespace} read in place from a memory-mapped {@link NamespaceSnapshot}: opening it
+ * only reads the header, pages are loaded by the OS as the user expands directories.
+ */
+public class MappedNamespace implements Namespace
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedFile file;
+    private final int size;
+    private final String rootPath;
+    private final int asOfDay;
+
+    private final long parents;
+    private final long nextSiblings;
+    private final long names;
+    private final long directorySlots;
+    private final long lengths;
+    private final long replications;
+    private final long blockCounts;
+    // NONE if ages or principals were not recorded
+    private final long lastTouchedDays;
+    private final long owners;
+    private final long groups;
+    private final long firstChildren;
+    private final long directoryModificationTimes;
+    private final long directorySpaceConsumed;
+    private final long directoryLengths;
+    private final long directoryFileCounts;
+    private final long directoryDirectoryCounts;
+    private final long directoryBlockCounts;
+    private final long directoryHistograms;
+    private final long directoryAgeHistograms;
+    private final long namePool;
+
+    MappedNamespace(MappedFile file) throws IOException
+    {
+        this.file = file;
+        this.size = file.getInt(8);
+
+        this.parents = section(NamespaceSnapshot.PARENTS);
+        this.nextSiblings = section(NamespaceSnapshot.NEXT_SIBLINGS);
+        this.names = section(NamespaceSnapshot.NAMES);
+        this.directorySlots = section(NamespaceSnapshot.DIRECTORY_SLOTS);
+        this.lengths = section(NamespaceSnapshot.LENGTHS);
+        this.replications = section(NamespaceSnapshot.REPLICATIONS);
+        this.blockCounts = section(NamespaceSnapshot.BLOCK_COUNTS);
+        this.lastTouchedDays = optionalSection(NamespaceSnapshot.LAST_TOUCHED_DAYS);
+        this.owners = optionalSection(NamespaceSnapshot.OWNERS);
+        this.groups = optionalSection(NamespaceSnapshot.GROUPS);
+        this.firstChildren = section(NamespaceSnapshot.FIRST_CHILDREN);
+        this.directoryModificationTimes = section(NamespaceSnapshot.DIRECTORY_MODIFICATION_TIMES);
+        this.directorySpaceConsumed = section(NamespaceSnapshot.DIRECTORY_SPACE_CONSUMED);
+        this.directoryLengths = section(NamespaceSnapshot.DIRECTORY_LENGTHS);
+        this.directoryFileCounts = section(NamespaceSnapshot.DIRECTORY_FILE_COUNTS);
+        this.directoryDirectoryCounts = section(NamespaceSnapshot.DIRECTORY_DIRECTORY_COUNTS);
+        this.directoryBlockCounts = section(NamespaceSnapshot.DIRECTORY_BLOCK_COUNTS);
+        this.directoryHistograms = section(NamespaceSnapshot.DIRECTORY_HISTOGRAMS);
+        this.directoryAgeHistograms = optionalSection(NamespaceSnapshot.DIRECTORY_AGE_HISTOGRAMS);
+        this.asOfDay = lastTouchedDays == NONE ? 0 : file.getInt(section(NamespaceSnapshot.AS_OF_DAY));
+        this.namePool = section(NamespaceSnapshot.NAME_POOL);
+
+        byte[] rootPath = new byte[(int) sectionLength(NamespaceSnapshot.ROOT_PATH)];
+
+        file.getBytes(section(NamespaceSnapshot.ROOT_PATH), rootPath, rootPath.length);
+        this.rootPath = new String(rootPath, UTF_8);
+    }
+
+    private long section(int id) throws IOException
+    {
+        return file.getLong(sectionEntry(id) + 4);
+    }
+
+    private long sectionLength(int id) throws IOException
+    {
+        return file.getLong(sectionEntry(id) + 12);
+    }
+
+    /**
+     * @return the offset of the section, or NONE if the snapshot doesn't have it
+     */
+    private long optionalSection(int id)
+    {
+        long entry = findSectionEntry(id);
+
+        return entry == NONE ? NONE : file.getLong(entry + 4);
+    }
+
+    private long sectionEntry(int id) throws IOException
+    {
+        long entry = findSectionEntry(id);
+
+        if (entry == NONE) {
+            throw new IOException(String.format("Snapshot is missing section %d", id));
+        }
+
+        return entry;
+    }
+
+    private long findSectionEntry(int id)
+    {
+        int sections = file.getInt(16);
+
+        for (int i = 0; i < sections; ++i) {
+            long entry = NamespaceSnapshot.headerSize(i);
+
+            if (file.getInt(entry) == id) {
+                return entry;
+            }
+        }
+
+        return NONE;
+    }
+
+    @Override
+    public String getRootPath()
+    {
+        return rootPath;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public int getParent(int node)
+    {
+        return file.getInt(parents + 4L * node);
+    }
+
+    @Override
+    public int getFirstChild(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? NONE : file.getInt(firstChildren + 4L * slot);
+    }
+
+    @Override
+    public int getNextSibling(int node)
+    {
+        return file.getInt(nextSiblings + 4L * node);
+    }
+
+    @Override
+    public boolean isDirectory(int node)
+    {
+        return getDirectorySlot(node) != NONE;
+    }
+
+    @Override
+    public String getName(int node)
+    {
+        return getString(file.getInt(names + 4L * node));
+    }
+
+    /**
+     * @param name offset in the name pool
+     */
+    private String getString(int name)
+    {
+        long offset = namePool + name;
+        int length = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = file.getByte(offset++);
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+
+        byte[] bytes = new byte[length];
+
+        file.getBytes(offset, bytes, length);
+
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public long getSpaceConsumed(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? getFileLength(node) * file.getByte(replications + node) : file.getLong(directorySpaceConsumed + 8L * slot);
+    }
+
+    @Override
+    public long getLength(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? getFileLength(node) : file.getLong(directoryLengths + 8L * slot);
+    }
+
+    @Override
+    public long getFileCount(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? 1 : file.getLong(directoryFileCounts + 8L * slot);
+    }
+
+    @Override
+    public long getDirectoryCount(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? 0 : file.getLong(directoryDirectoryCounts + 8L * slot);
+    }
+
+    @Override
+    public long getBlockCount(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? file.getInt(blockCounts + 4L * node) : file.getLong(directoryBlockCounts + 8L * slot);
+    }
+
+    @Override
+    public long getFileCount(int node, int bucket)
+    {
+        int slot = getDirectorySlot(node);
+
+        if (slot == NONE) {
+            return FileSizeHistogram.getBucket(getFileLength(node)) == bucket ? 1 : 0;
+        }
+
+        return file.getInt(directoryHistograms + 4L * ((long) slot * FileSizeHistogram.BUCKETS + bucket));
+    }
+
+    @Override
+    public long getModificationTime(int node)
+    {
+        int slot = getDirectorySlot(node);
+
+        return slot == NONE ? 0 : file.getLong(directoryModificationTimes + 8L * slot);
+    }
+
+    @Override
+    public int getLastTouchedDay(int node)
+    {
+        return isDirectory(node) || lastTouchedDays == NONE ? 0 : file.getInt(lastTouchedDays + 4L * node);
+    }
+
+    @Override
+    public long getSpaceConsumed(int node, int ageBucket)
+    {
+        int slot = getDirectorySlot(node);
+
+        if (lastTouchedDays == NONE) {
+            return 0;
+        }
+
+        if (slot == NONE) {
+            return FileAgeHistogram.getBucket(getLastTouchedDay(node), asOfDay) == ageBucket ? getSpaceConsumed(node) : 0;
+        }
+
+        return file.getLong(directoryAgeHistograms + 8L * ((long) slot * FileAgeHistogram.BUCKETS + ageBucket));
+    }
+
+    @Override
+    public int getOwner(int node)
+    {
+        return owners == NONE ? NONE : file.getInt(owners + 4L * node);
+    }
+
+    @Override
+    public int getGroup(int node)
+    {
+        return groups == NONE ? NONE : file.getInt(groups + 4L * node);
+    }
+
+    @Override
+    public boolean hasAges()
+    {
+        return lastTouchedDays != NONE;
+    }
+
+    @Override
+    public boolean hasPrincipals()
+    {
+        return owners != NONE;
+    }
+
+    @Override
+    public String getPrincipal(int principal)
+    {
+        return principal == NONE ? null : getString(principal);
+    }
+
+    private int getDirectorySlot(int node)
+    {
+        return file.getInt(directorySlots + 4L * node);
+    }
+
+    private long getFileLength(int node)
+    {
+        return file.getLong(lengths + 8L * node);
+    }
+}
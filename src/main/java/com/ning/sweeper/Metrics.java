@@ -0,0 +1,290 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide metrics, exposed over JMX under com.ning.sweeper and optionally logged.
+ * <p/>
+ * Recording is a handful of atomic operations, without locks nor allocation, so that it can stay
+ * on: look metrics up once and keep them in static fields.
+ */
+public final class Metrics
+{
+    private static final Logger log = Logger.getLogger(Metrics.class.getName());
+
+    private static final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+    private Metrics()
+    {
+    }
+
+    public interface LatencyMBean
+    {
+        public long getCount();
+
+        public double getMeanMillis();
+
+        public double getMedianMillis();
+
+        public double getPercentile99Millis();
+
+        public double getMaxMillis();
+    }
+
+    public interface CounterMBean
+    {
+        public long getCount();
+    }
+
+    public interface GaugeMBean
+    {
+        public long getValue();
+    }
+
+    /**
+     * Durations, with percentiles estimated from power of two buckets (within a factor of 2).
+     */
+    public static final class Latency implements LatencyMBean
+    {
+        // Bucket i counts durations in [2^i, 2^(i+1)) microseconds
+        private static final int BUCKETS = 40;
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Latency()
+        {
+        }
+
+        public void record(long nanos)
+        {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos / 1000))));
+
+            long max;
+
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // Retry: another thread raised the maximum
+            }
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        @Override
+        public double getMeanMillis()
+        {
+            long count = this.count.get();
+
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        @Override
+        public double getMedianMillis()
+        {
+            return getPercentileMillis(0.5);
+        }
+
+        @Override
+        public double getPercentile99Millis()
+        {
+            return getPercentileMillis(0.99);
+        }
+
+        @Override
+        public double getMaxMillis()
+        {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given percentile
+         */
+        private double getPercentileMillis(double percentile)
+        {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += counts[i];
+
+                if (seen > 0 && seen >= percentile * total) {
+                    return Math.min((1L << (i + 1)) / 1e3, getMaxMillis());
+                }
+            }
+
+            return 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d calls, mean %.1f ms, median %.1f ms, 99th %.1f ms, max %.1f ms",
+                getCount(), getMeanMillis(), getMedianMillis(), getPercentile99Millis(), getMaxMillis());
+        }
+    }
+
+    public static final class Counter implements CounterMBean
+    {
+        private final AtomicLong count = new AtomicLong();
+
+        private Counter()
+        {
+        }
+
+        public void increment()
+        {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(getCount());
+        }
+    }
+
+    /**
+     * Value read when polled, e.g. a queue size.
+     */
+    public static abstract class Gauge implements GaugeMBean
+    {
+        @Override
+        public String toString()
+        {
+            return String.valueOf(getValue());
+        }
+    }
+
+    public static Latency latency(String name)
+    {
+        return get(name, new Latency(), LatencyMBean.class);
+    }
+
+    public static Counter counter(String name)
+    {
+        return get(name, new Counter(), CounterMBean.class);
+    }
+
+    /**
+     * Replaces any gauge of the same name, e.g. from a previous scheduler.
+     */
+    public static void gauge(String name, Gauge gauge)
+    {
+        metrics.put(name, gauge);
+        register(name, gauge, GaugeMBean.class);
+    }
+
+    /**
+     * Log all metrics every given number of seconds, from a daemon thread.
+     */
+    public static void startLogging(long periodSeconds)
+    {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "sweeper-metrics");
+
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                    log.info(String.format("%s: %s", entry.getKey(), entry.getValue()));
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(String name, T metric, Class<? super T> type)
+    {
+        Object existing = metrics.putIfAbsent(name, metric);
+
+        if (existing != null) {
+            return (T) existing;
+        }
+
+        register(name, metric, type);
+
+        return metric;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void register(String name, T metric, Class<? super T> type)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName objectName = new ObjectName(String.format("com.ning.sweeper:type=%s,name=%s", type.getSimpleName().replace("MBean", ""), name));
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            server.registerMBean(new StandardMBean(metric, (Class<T>) type), objectName);
+        }
+        catch (JMException e) {
+            log.warn(String.format("Unable to expose [%s] over JMX (%s)", name, e));
+        }
+    }
+}
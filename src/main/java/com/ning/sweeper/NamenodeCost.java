@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+/**
+ * Rough estimate of the namenode heap used by a subtree: every file, directory and block is an
+ * object of about 150 bytes, whatever its size.
+ */
+public final class NamenodeCost
+{
+    public static final long BYTES_PER_OBJECT = 150;
+
+    private NamenodeCost()
+    {
+    }
+
+    public static int getBlockCount(long length, long blockSize)
+    {
+        if (length <= 0 || blockSize <= 0) {
+            return length <= 0 ? 0 : 1;
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, (length - 1) / blockSize + 1);
+    }
+
+    public static long getObjectCount(long files, long directories, long blocks)
+    {
+        return files + directories + blocks;
+    }
+
+    public static long getHeapBytes(long files, long directories, long blocks)
+    {
+        return BYTES_PER_OBJECT * getObjectCount(files, directories, blocks);
+    }
+}
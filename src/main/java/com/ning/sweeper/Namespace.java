@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+/**
+ * Read-only view of a crawled namespace tree: nodes are identified by their int index,
+ * root is {@link #ROOT} and absent links are {@link #NONE}.
+ */
+public interface Namespace
+{
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    /**
+     * @return the absolute path of the {@link #ROOT} node
+     */
+    public String getRootPath();
+
+    public int size();
+
+    public int getParent(int node);
+
+    public int getFirstChild(int node);
+
+    public int getNextSibling(int node);
+
+    public boolean isDirectory(int node);
+
+    public String getName(int node);
+
+    public long getSpaceConsumed(int node);
+
+    public long getLength(int node);
+
+    public long getFileCount(int node);
+
+    public long getDirectoryCount(int node);
+
+    public long getBlockCount(int node);
+
+    /**
+     * @return number of files whose length falls in the given {@link FileSizeHistogram} bucket
+     */
+    public long getFileCount(int node, int bucket);
+
+    /**
+     * @return modification time of a directory when it was crawled, 0 for files or if unknown
+     */
+    public long getModificationTime(int node);
+
+    /**
+     * @return day (since the epoch) a file was last read or written, 0 for directories or if unknown
+     */
+    public int getLastTouchedDay(int node);
+
+    /**
+     * @return space consumed by files whose age falls in the given {@link FileAgeHistogram} bucket,
+     * 0 if ages were not recorded
+     */
+    public long getSpaceConsumed(int node, int ageBucket);
+
+    /**
+     * @return false if last touched days were not recorded (sweeper.index.ages)
+     */
+    public boolean hasAges();
+
+    /**
+     * @return owner of the node, as passed to {@link #getPrincipal}, {@link #NONE} if unknown
+     */
+    public int getOwner(int node);
+
+    /**
+     * @return group of the node, as passed to {@link #getPrincipal}, {@link #NONE} if unknown
+     */
+    public int getGroup(int node);
+
+    /**
+     * @return false if owners and groups were not recorded (sweeper.index.principals)
+     */
+    public boolean hasPrincipals();
+
+    /**
+     * @param principal an owner or group, equal for nodes owned by the same principal
+     * @return the name of the principal, null for {@link #NONE}
+     */
+    public String getPrincipal(int principal);
+}
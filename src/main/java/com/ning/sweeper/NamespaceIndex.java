@@ -0,0 +1,768 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact, array-backed namespace tree.
+ * <p/>
+ * Every node costs 29 bytes (parent, next sibling, name, directory slot and block count ints,
+ * length long, replication byte), every directory 120 more bytes (first and last child ints,
+ * modification time, five aggregated totals and a {@link FileSizeHistogram}). Names are interned
+ * into a shared UTF-8 pool, so the millions of part-00000 cost a single entry.
+ * <p/>
+ * Ages and principals are only allocated once the first one is set: last touched days cost 4 more
+ * bytes per node and a {@link FileAgeHistogram} 56 per directory, owners and groups 8 per node
+ * (interned in the pool as well).
+ * <p/>
+ * Parents must be added before their children, which lets {@link #aggregate()} sum the totals
+ * bottom-up in a single reverse pass. Not thread safe while being built.
+ */
+public class NamespaceIndex implements Namespace
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 1024;
+    // Histograms are indexed by slot * BUCKETS ints, which must not overflow (the age histograms
+    // have fewer buckets)
+    private static final int MAX_DIRECTORIES = Integer.MAX_VALUE / FileSizeHistogram.BUCKETS;
+
+    // Per node
+    private int size = 0;
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int[] names = new int[INITIAL_CAPACITY];
+    private int[] directorySlots = new int[INITIAL_CAPACITY];
+    private long[] lengths = new long[INITIAL_CAPACITY];
+    private byte[] replications = new byte[INITIAL_CAPACITY];
+    private int[] blockCounts = new int[INITIAL_CAPACITY];
+    // Null until set
+    private int[] lastTouchedDays = null;
+    private int[] owners = null;
+    private int[] groups = null;
+
+    // Per directory
+    private int directories = 0;
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] lastChildren = new int[INITIAL_CAPACITY];
+    private long[] directoryModificationTimes = new long[INITIAL_CAPACITY];
+    private long[] directorySpaceConsumed = new long[INITIAL_CAPACITY];
+    private long[] directoryLengths = new long[INITIAL_CAPACITY];
+    private long[] directoryFileCounts = new long[INITIAL_CAPACITY];
+    private long[] directoryDirectoryCounts = new long[INITIAL_CAPACITY];
+    private long[] directoryBlockCounts = new long[INITIAL_CAPACITY];
+    private int[] directoryHistograms = new int[INITIAL_CAPACITY * FileSizeHistogram.BUCKETS];
+    // Allocated by aggregate(), if ages were set
+    private long[] directoryAgeHistograms = null;
+
+    // Interned names: varint length followed by the UTF-8 bytes, deduplicated through an
+    // open addressing table of pool offsets (+1, 0 being empty)
+    private byte[] namePool = new byte[INITIAL_CAPACITY * 8];
+    private int namePoolSize = 0;
+    private int[] nameTable = new int[INITIAL_CAPACITY];
+    private int internedNames = 0;
+
+    // Siblings usually share their owner and group: skip interning them again
+    private String lastOwner = null;
+    private int lastOwnerPrincipal = NONE;
+    private String lastGroup = null;
+    private int lastGroupPrincipal = NONE;
+
+    private final String rootPath;
+    private boolean aggregated = false;
+    // Ages are computed as of the aggregation
+    private int asOfDay = 0;
+
+    public NamespaceIndex(String rootPath)
+    {
+        this.rootPath = rootPath;
+    }
+
+    public int addDirectory(int parent, String name)
+    {
+        byte[] bytes = name.getBytes(UTF_8);
+
+        return addDirectory(parent, bytes, 0, bytes.length);
+    }
+
+    public int addDirectory(int parent, byte[] name, int offset, int length)
+    {
+        return addDirectory(parent, intern(name, offset, length));
+    }
+
+    int addDirectory(int parent, int name)
+    {
+        if (directories == MAX_DIRECTORIES) {
+            throw new IllegalStateException(String.format("More than %d directories, the most an index can hold", MAX_DIRECTORIES));
+        }
+
+        int node = addNode(parent, name);
+
+        if (directories == firstChildren.length) {
+            int capacity = Math.min(grow(directories), MAX_DIRECTORIES);
+
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            directoryModificationTimes = Arrays.copyOf(directoryModificationTimes, capacity);
+            directorySpaceConsumed = Arrays.copyOf(directorySpaceConsumed, capacity);
+            directoryLengths = Arrays.copyOf(directoryLengths, capacity);
+            directoryFileCounts = Arrays.copyOf(directoryFileCounts, capacity);
+            directoryDirectoryCounts = Arrays.copyOf(directoryDirectoryCounts, capacity);
+            directoryBlockCounts = Arrays.copyOf(directoryBlockCounts, capacity);
+            directoryHistograms = Arrays.copyOf(directoryHistograms, capacity * FileSizeHistogram.BUCKETS);
+        }
+
+        int slot = directories++;
+
+        directorySlots[node] = slot;
+        firstChildren[slot] = NONE;
+        lastChildren[slot] = NONE;
+        directoryModificationTimes[slot] = 0;
+        directoryDirectoryCounts[slot] = 1;
+
+        return node;
+    }
+
+    public int addFile(int parent, String name, long length, short replication, int blocks)
+    {
+        byte[] bytes = name.getBytes(UTF_8);
+
+        return addFile(parent, bytes, 0, bytes.length, length, replication, blocks);
+    }
+
+    public int addFile(int parent, byte[] name, int offset, int nameLength, long length, short replication, int blocks)
+    {
+        int node = addNode(parent, intern(name, offset, nameLength));
+
+        lengths[node] = length;
+        replications[node] = (byte) Math.min(replication, Byte.MAX_VALUE);
+        blockCounts[node] = blocks;
+
+        return node;
+    }
+
+    /**
+     * @param day as returned by {@link FileAgeHistogram#getDay}
+     */
+    public void setLastTouchedDay(int file, int day)
+    {
+        if (lastTouchedDays == null) {
+            if (day == 0) {
+                return;
+            }
+
+            lastTouchedDays = new int[parents.length];
+        }
+
+        lastTouchedDays[file] = day;
+    }
+
+    /**
+     * @param owner null or empty if unknown
+     * @param group null or empty if unknown
+     */
+    public void setOwner(int node, String owner, String group)
+    {
+        if (owner == null || !owner.equals(lastOwner)) {
+            lastOwner = owner;
+            lastOwnerPrincipal = internPrincipal(owner);
+        }
+
+        if (group == null || !group.equals(lastGroup)) {
+            lastGroup = group;
+            lastGroupPrincipal = internPrincipal(group);
+        }
+
+        setPrincipals(node, lastOwnerPrincipal, lastGroupPrincipal);
+    }
+
+    public void setOwner(int node, byte[] line, int ownerOffset, int ownerLength, int groupOffset, int groupLength)
+    {
+        setPrincipals(node, ownerLength == 0 ? NONE : intern(line, ownerOffset, ownerLength), groupLength == 0 ? NONE : intern(line, groupOffset, groupLength));
+    }
+
+    private void setPrincipals(int node, int owner, int group)
+    {
+        if (owners == null) {
+            if (owner == NONE && group == NONE) {
+                return;
+            }
+
+            owners = new int[parents.length];
+            groups = new int[parents.length];
+            Arrays.fill(owners, NONE);
+            Arrays.fill(groups, NONE);
+        }
+
+        owners[node] = owner;
+        groups[node] = group;
+    }
+
+    private int internPrincipal(String principal)
+    {
+        if (principal == null || principal.isEmpty()) {
+            return NONE;
+        }
+
+        byte[] bytes = principal.getBytes(UTF_8);
+
+        return intern(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param modificationTime as returned by FileStatus, 0 if unknown
+     */
+    public void setModificationTime(int directory, long modificationTime)
+    {
+        directoryModificationTimes[directorySlots[directory]] = modificationTime;
+    }
+
+    private int addNode(int parent, int name)
+    {
+        if (aggregated) {
+            throw new IllegalStateException("Index already aggregated");
+        }
+
+        if (parent == NONE ? size != ROOT : (parent >= size || directorySlots[parent] == NONE)) {
+            throw new IllegalArgumentException(String.format("Invalid parent %d", parent));
+        }
+
+        if (size == parents.length) {
+            int capacity = grow(size);
+
+            parents = Arrays.copyOf(parents, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            names = Arrays.copyOf(names, capacity);
+            directorySlots = Arrays.copyOf(directorySlots, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            replications = Arrays.copyOf(replications, capacity);
+            blockCounts = Arrays.copyOf(blockCounts, capacity);
+
+            if (lastTouchedDays != null) {
+                lastTouchedDays = Arrays.copyOf(lastTouchedDays, capacity);
+            }
+
+            if (owners != null) {
+                owners = Arrays.copyOf(owners, capacity);
+                groups = Arrays.copyOf(groups, capacity);
+            }
+        }
+
+        int node = size++;
+
+        parents[node] = parent;
+        nextSiblings[node] = NONE;
+        names[node] = name;
+        directorySlots[node] = NONE;
+
+        if (owners != null) {
+            owners[node] = NONE;
+            groups[node] = NONE;
+        }
+
+        if (parent != NONE) {
+            int slot = directorySlots[parent];
+
+            if (lastChildren[slot] == NONE) {
+                firstChildren[slot] = node;
+            }
+            else {
+                nextSiblings[lastChildren[slot]] = node;
+            }
+
+            lastChildren[slot] = node;
+        }
+
+        return node;
+    }
+
+    /**
+     * Sum the totals of every node into its ancestors. Must be called once, after the last node is added.
+     */
+    public void aggregate()
+    {
+        asOfDay = FileAgeHistogram.getToday();
+
+        if (lastTouchedDays != null) {
+            directoryAgeHistograms = new long[directories * FileAgeHistogram.BUCKETS];
+        }
+
+        for (int node = size - 1; node > ROOT; --node) {
+            int slot = directorySlots[parents[node]];
+
+            directorySpaceConsumed[slot] += getSpaceConsumed(node);
+            directoryLengths[slot] += getLength(node);
+            directoryFileCounts[slot] += getFileCount(node);
+            directoryBlockCounts[slot] += getBlockCount(node);
+
+            if (isDirectory(node)) {
+                int child = directorySlots[node];
+
+                directoryDirectoryCounts[slot] += directoryDirectoryCounts[child];
+
+                for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+                    directoryHistograms[slot * FileSizeHistogram.BUCKETS + bucket] += directoryHistograms[child * FileSizeHistogram.BUCKETS + bucket];
+                }
+
+                if (directoryAgeHistograms != null) {
+                    for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+                        directoryAgeHistograms[slot * FileAgeHistogram.BUCKETS + bucket] += directoryAgeHistograms[child * FileAgeHistogram.BUCKETS + bucket];
+                    }
+                }
+            }
+            else {
+                directoryHistograms[slot * FileSizeHistogram.BUCKETS + FileSizeHistogram.getBucket(lengths[node])]++;
+
+                if (directoryAgeHistograms != null) {
+                    directoryAgeHistograms[slot * FileAgeHistogram.BUCKETS + FileAgeHistogram.getBucket(lastTouchedDays[node], asOfDay)] += getSpaceConsumed(node);
+                }
+            }
+        }
+
+        aggregated = true;
+    }
+
+    @Override
+    public String getRootPath()
+    {
+        return rootPath;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    public int getDirectories()
+    {
+        return directories;
+    }
+
+    @Override
+    public int getParent(int node)
+    {
+        return parents[node];
+    }
+
+    @Override
+    public int getFirstChild(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? NONE : firstChildren[slot];
+    }
+
+    @Override
+    public int getNextSibling(int node)
+    {
+        return nextSiblings[node];
+    }
+
+    @Override
+    public boolean isDirectory(int node)
+    {
+        return directorySlots[node] != NONE;
+    }
+
+    @Override
+    public String getName(int node)
+    {
+        int offset = names[node];
+
+        return new String(namePool, skipLength(offset), readLength(offset), UTF_8);
+    }
+
+    @Override
+    public long getSpaceConsumed(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? lengths[node] * replications[node] : directorySpaceConsumed[slot];
+    }
+
+    @Override
+    public long getLength(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? lengths[node] : directoryLengths[slot];
+    }
+
+    @Override
+    public long getFileCount(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? 1 : directoryFileCounts[slot];
+    }
+
+    @Override
+    public long getDirectoryCount(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? 0 : directoryDirectoryCounts[slot];
+    }
+
+    @Override
+    public long getBlockCount(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? blockCounts[node] : directoryBlockCounts[slot];
+    }
+
+    @Override
+    public long getFileCount(int node, int bucket)
+    {
+        int slot = directorySlots[node];
+
+        if (slot == NONE) {
+            return FileSizeHistogram.getBucket(lengths[node]) == bucket ? 1 : 0;
+        }
+
+        return directoryHistograms[slot * FileSizeHistogram.BUCKETS + bucket];
+    }
+
+    @Override
+    public long getModificationTime(int node)
+    {
+        int slot = directorySlots[node];
+
+        return slot == NONE ? 0 : directoryModificationTimes[slot];
+    }
+
+    @Override
+    public int getLastTouchedDay(int node)
+    {
+        return directorySlots[node] == NONE && lastTouchedDays != null ? lastTouchedDays[node] : 0;
+    }
+
+    @Override
+    public long getSpaceConsumed(int node, int ageBucket)
+    {
+        int slot = directorySlots[node];
+
+        if (lastTouchedDays == null || (slot != NONE && directoryAgeHistograms == null)) {
+            return 0;
+        }
+
+        if (slot == NONE) {
+            return FileAgeHistogram.getBucket(lastTouchedDays[node], asOfDay) == ageBucket ? getSpaceConsumed(node) : 0;
+        }
+
+        return directoryAgeHistograms[slot * FileAgeHistogram.BUCKETS + ageBucket];
+    }
+
+    @Override
+    public int getOwner(int node)
+    {
+        return owners == null ? NONE : owners[node];
+    }
+
+    @Override
+    public int getGroup(int node)
+    {
+        return groups == null ? NONE : groups[node];
+    }
+
+    @Override
+    public boolean hasAges()
+    {
+        return lastTouchedDays != null;
+    }
+
+    @Override
+    public boolean hasPrincipals()
+    {
+        return owners != null;
+    }
+
+    @Override
+    public String getPrincipal(int principal)
+    {
+        return principal == NONE ? null : new String(namePool, skipLength(principal), readLength(principal), UTF_8);
+    }
+
+    // Raw arrays, for NamespaceSnapshot: ages and principals are null if never set
+
+    int[] getParents()
+    {
+        return parents;
+    }
+
+    int[] getNextSiblings()
+    {
+        return nextSiblings;
+    }
+
+    int[] getNames()
+    {
+        return names;
+    }
+
+    int[] getDirectorySlots()
+    {
+        return directorySlots;
+    }
+
+    long[] getLengths()
+    {
+        return lengths;
+    }
+
+    byte[] getReplications()
+    {
+        return replications;
+    }
+
+    int[] getBlockCounts()
+    {
+        return blockCounts;
+    }
+
+    int[] getLastTouchedDays()
+    {
+        return lastTouchedDays;
+    }
+
+    int[] getOwners()
+    {
+        return owners;
+    }
+
+    int[] getGroups()
+    {
+        return groups;
+    }
+
+    int getAsOfDay()
+    {
+        return asOfDay;
+    }
+
+    int[] getFirstChildren()
+    {
+        return firstChildren;
+    }
+
+    long[] getDirectoryModificationTimes()
+    {
+        return directoryModificationTimes;
+    }
+
+    long[] getDirectorySpaceConsumed()
+    {
+        return directorySpaceConsumed;
+    }
+
+    long[] getDirectoryLengths()
+    {
+        return directoryLengths;
+    }
+
+    long[] getDirectoryFileCounts()
+    {
+        return directoryFileCounts;
+    }
+
+    long[] getDirectoryDirectoryCounts()
+    {
+        return directoryDirectoryCounts;
+    }
+
+    long[] getDirectoryBlockCounts()
+    {
+        return directoryBlockCounts;
+    }
+
+    int[] getDirectoryHistograms()
+    {
+        return directoryHistograms;
+    }
+
+    long[] getDirectoryAgeHistograms()
+    {
+        return directoryAgeHistograms;
+    }
+
+    byte[] getNamePool()
+    {
+        return namePool;
+    }
+
+    int getNamePoolSize()
+    {
+        return namePoolSize;
+    }
+
+    /**
+     * @return approximate heap used by the index, in bytes
+     */
+    public long getMemoryUsage()
+    {
+        long usage = 29L * parents.length + 120L * firstChildren.length + namePool.length + 4L * nameTable.length;
+
+        if (lastTouchedDays != null) {
+            usage += 4L * lastTouchedDays.length;
+        }
+
+        if (directoryAgeHistograms != null) {
+            usage += 8L * directoryAgeHistograms.length;
+        }
+
+        if (owners != null) {
+            usage += 8L * owners.length;
+        }
+
+        return usage;
+    }
+
+    /**
+     * @return the offset of the name in the pool, which uniquely identifies it
+     */
+    int intern(byte[] name, int offset, int length)
+    {
+        int hash = hash(name, offset, length);
+        int mask = nameTable.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = nameTable[i];
+
+            if (entry == 0) {
+                break;
+            }
+
+            if (poolEquals(entry - 1, name, offset, length)) {
+                return entry - 1;
+            }
+        }
+
+        if (namePool.length - namePoolSize < length + 5) {
+            namePool = Arrays.copyOf(namePool, Math.max(grow(namePool.length), namePoolSize + length + 5));
+        }
+
+        int poolOffset = namePoolSize;
+
+        for (int remaining = length; ; remaining >>>= 7) {
+            if (remaining < 0x80) {
+                namePool[namePoolSize++] = (byte) remaining;
+                break;
+            }
+
+            namePool[namePoolSize++] = (byte) ((remaining & 0x7f) | 0x80);
+        }
+
+        System.arraycopy(name, offset, namePool, namePoolSize, length);
+        namePoolSize += length;
+
+        if (++internedNames * 2 > nameTable.length) {
+            rehash();
+        }
+
+        insert(nameTable, hash, poolOffset);
+
+        return poolOffset;
+    }
+
+    private void rehash()
+    {
+        int[] table = new int[nameTable.length * 2];
+
+        for (int entry : nameTable) {
+            if (entry != 0) {
+                int offset = entry - 1;
+
+                insert(table, hash(namePool, skipLength(offset), readLength(offset)), offset);
+            }
+        }
+
+        nameTable = table;
+    }
+
+    private static void insert(int[] table, int hash, int poolOffset)
+    {
+        int mask = table.length - 1;
+        int i = hash & mask;
+
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+
+        table[i] = poolOffset + 1;
+    }
+
+    private boolean poolEquals(int poolOffset, byte[] name, int offset, int length)
+    {
+        if (readLength(poolOffset) != length) {
+            return false;
+        }
+
+        int start = skipLength(poolOffset);
+
+        for (int i = 0; i < length; ++i) {
+            if (namePool[start + i] != name[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int readLength(int poolOffset)
+    {
+        int length = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = namePool[poolOffset++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+
+        return length;
+    }
+
+    private int skipLength(int poolOffset)
+    {
+        while (namePool[poolOffset++] < 0) {
+            // continuation byte
+        }
+
+        return poolOffset;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        int hash = 1;
+
+        for (int i = offset; i < offset + length; ++i) {
+            hash = 31 * hash + bytes[i];
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int grow(int capacity)
+    {
+        return capacity + (capacity >> 1);
+    }
+}
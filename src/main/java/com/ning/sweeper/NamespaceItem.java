@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Flyweight view of a {@link Namespace} node: no RPC is issued when browsing it,
+ * and views are only created for the columns being displayed.
+ */
+public class NamespaceItem implements PagedItem
+{
+    private final Namespace namespace;
+    private final int node;
+    private final ContentSummaryTypes contentSummaryType;
+
+    public NamespaceItem(Namespace namespace, int node, ContentSummaryTypes contentSummaryType)
+    {
+        this.namespace = namespace;
+        this.node = node;
+        this.contentSummaryType = contentSummaryType;
+    }
+
+    int getNode()
+    {
+        return node;
+    }
+
+    @Override
+    public String getName()
+    {
+        String name = namespace.getName(node);
+
+        return namespace.isDirectory(node) ? "/" + name : name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(namespace, node, contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return getTotalSize(namespace, node, contentSummaryType);
+    }
+
+    static long getTotalSize(Namespace namespace, int node, ContentSummaryTypes contentSummaryType)
+    {
+        switch (contentSummaryType) {
+            case SPACE_USED:
+                return namespace.getSpaceConsumed(node);
+            case NUMBER_OF_FILES:
+                return namespace.getFileCount(node);
+            case SMALL_FILES:
+                return FileSizeHistogram.getSmallFileCount(namespace, node);
+            case AVERAGE_FILE_SIZE:
+                return namespace.getFileCount(node) == 0 ? 0 : namespace.getLength(node) / namespace.getFileCount(node);
+            case NAMENODE_OBJECTS:
+                return NamenodeCost.getObjectCount(namespace.getFileCount(node), namespace.getDirectoryCount(node), namespace.getBlockCount(node));
+            case NAMENODE_HEAP:
+                return NamenodeCost.getHeapBytes(namespace.getFileCount(node), namespace.getDirectoryCount(node), namespace.getBlockCount(node));
+            case LENGTH:
+                return namespace.getLength(node);
+            case NUMBER_OF_DIRECTORIES:
+                return namespace.getDirectoryCount(node);
+            case NUMBER_OF_BLOCKS:
+                return namespace.getBlockCount(node);
+            case COLD_SPACE_30_DAYS:
+                return FileAgeHistogram.getColdSpace(namespace, node, 30);
+            case COLD_SPACE_90_DAYS:
+                return FileAgeHistogram.getColdSpace(namespace, node, 90);
+            case COLD_SPACE_365_DAYS:
+                return FileAgeHistogram.getColdSpace(namespace, node, 365);
+            case QUOTA:
+            case SPACE_QUOTA:
+                // Not returned by listStatus
+                return Item.UNKNOWN_SIZE;
+            default:
+                throw new IllegalArgumentException(String.format("Don't know what to look for (%s)", contentSummaryType));
+        }
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+
+        for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            children.add(new NamespaceItem(namespace, child, contentSummaryType));
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public Iterator<List<Item>> listChildren(final int batchSize)
+    {
+        return new Iterator<List<Item>>()
+        {
+            private int child = namespace.getFirstChild(node);
+
+            @Override
+            public boolean hasNext()
+            {
+                return child != Namespace.NONE;
+            }
+
+            @Override
+            public List<Item> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<Item> batch = new ArrayList<Item>(batchSize);
+
+                while (child != Namespace.NONE && batch.size() < batchSize) {
+                    batch.add(new NamespaceItem(namespace, child, contentSummaryType));
+                    child = namespace.getNextSibling(child);
+                }
+
+                return batch;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof NamespaceItem)) {
+            return false;
+        }
+
+        NamespaceItem other = (NamespaceItem) o;
+
+        return namespace == other.namespace && node == other.node && contentSummaryType == other.contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * System.identityHashCode(namespace) + node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ":" + getTotalSize();
+    }
+}
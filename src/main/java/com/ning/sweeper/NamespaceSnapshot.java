@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot of a {@link NamespaceIndex}.
+ * <p/>
+ * Layout (big endian): magic, version, node count, directory count, section count, then one
+ * (id, offset, length) entry per section. Each section is a raw array, aligned on 8 bytes, so
+ * that {@link MappedNamespace} can read nodes in place without any deserialization pass. The age
+ * and principal sections are left out if the index didn't record them.
+ */
+public class NamespaceSnapshot
+{
+    private final static Logger log = Logger.getLogger(NamespaceSnapshot.class.getName());
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int MAGIC = 0x53575052; // SWPR
+    static final int VERSION = 6;
+
+    static final int PARENTS = 1;
+    static final int NEXT_SIBLINGS = 2;
+    static final int NAMES = 3;
+    static final int DIRECTORY_SLOTS = 4;
+    static final int LENGTHS = 5;
+    static final int REPLICATIONS = 6;
+    static final int FIRST_CHILDREN = 7;
+    static final int DIRECTORY_SPACE_CONSUMED = 8;
+    static final int DIRECTORY_LENGTHS = 9;
+    static final int DIRECTORY_FILE_COUNTS = 10;
+    static final int DIRECTORY_DIRECTORY_COUNTS = 11;
+    static final int NAME_POOL = 12;
+    static final int ROOT_PATH = 13;
+    static final int DIRECTORY_HISTOGRAMS = 14;
+    static final int BLOCK_COUNTS = 15;
+    static final int DIRECTORY_BLOCK_COUNTS = 16;
+    static final int DIRECTORY_MODIFICATION_TIMES = 17;
+    static final int LAST_TOUCHED_DAYS = 18;
+    static final int DIRECTORY_AGE_HISTOGRAMS = 19;
+    static final int AS_OF_DAY = 20;
+    static final int OWNERS = 21;
+    static final int GROUPS = 22;
+
+    private static class Section
+    {
+        private final int id;
+        private final Object values;
+        private final int count;
+
+        private Section(int id, Object values, int count)
+        {
+            this.id = id;
+            this.values = values;
+            this.count = count;
+        }
+
+        private long length()
+        {
+            if (values instanceof int[]) {
+                return 4L * count;
+            }
+            else if (values instanceof long[]) {
+                return 8L * count;
+            }
+            else {
+                return count;
+            }
+        }
+
+        private void write(DataOutputStream out) throws IOException
+        {
+            if (values instanceof int[]) {
+                int[] ints = (int[]) values;
+
+                for (int i = 0; i < count; ++i) {
+                    out.writeInt(ints[i]);
+                }
+            }
+            else if (values instanceof long[]) {
+                long[] longs = (long[]) values;
+
+                for (int i = 0; i < count; ++i) {
+                    out.writeLong(longs[i]);
+                }
+            }
+            else {
+                out.write((byte[]) values, 0, count);
+            }
+        }
+    }
+
+    private NamespaceSnapshot()
+    {
+    }
+
+    public static void write(NamespaceIndex index, File file) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        int nodes = index.size();
+        int directories = index.getDirectories();
+        byte[] rootPath = index.getRootPath().getBytes(UTF_8);
+
+        List<Section> sections = new ArrayList<Section>(Arrays.asList(
+            new Section(PARENTS, index.getParents(), nodes),
+            new Section(NEXT_SIBLINGS, index.getNextSiblings(), nodes),
+            new Section(NAMES, index.getNames(), nodes),
+            new Section(DIRECTORY_SLOTS, index.getDirectorySlots(), nodes),
+            new Section(LENGTHS, index.getLengths(), nodes),
+            new Section(BLOCK_COUNTS, index.getBlockCounts(), nodes),
+            new Section(FIRST_CHILDREN, index.getFirstChildren(), directories),
+            new Section(DIRECTORY_MODIFICATION_TIMES, index.getDirectoryModificationTimes(), directories),
+            new Section(DIRECTORY_SPACE_CONSUMED, index.getDirectorySpaceConsumed(), directories),
+            new Section(DIRECTORY_LENGTHS, index.getDirectoryLengths(), directories),
+            new Section(DIRECTORY_FILE_COUNTS, index.getDirectoryFileCounts(), directories),
+            new Section(DIRECTORY_DIRECTORY_COUNTS, index.getDirectoryDirectoryCounts(), directories),
+            new Section(DIRECTORY_BLOCK_COUNTS, index.getDirectoryBlockCounts(), directories),
+            new Section(DIRECTORY_HISTOGRAMS, index.getDirectoryHistograms(), directories * FileSizeHistogram.BUCKETS),
+            new Section(REPLICATIONS, index.getReplications(), nodes),
+            new Section(NAME_POOL, index.getNamePool(), index.getNamePoolSize()),
+            new Section(ROOT_PATH, rootPath, rootPath.length)
+        ));
+
+        // Only if recorded
+        if (index.hasAges()) {
+            sections.add(new Section(LAST_TOUCHED_DAYS, index.getLastTouchedDays(), nodes));
+            sections.add(new Section(AS_OF_DAY, new int[]{index.getAsOfDay()}, 1));
+            sections.add(new Section(DIRECTORY_AGE_HISTOGRAMS, index.getDirectoryAgeHistograms(), directories * FileAgeHistogram.BUCKETS));
+        }
+
+        if (index.hasPrincipals()) {
+            sections.add(new Section(OWNERS, index.getOwners(), nodes));
+            sections.add(new Section(GROUPS, index.getGroups(), nodes));
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nodes);
+            out.writeInt(directories);
+            out.writeInt(sections.size());
+
+            long offset = align(headerSize(sections.size()));
+
+            for (Section section : sections) {
+                out.writeInt(section.id);
+                out.writeLong(offset);
+                out.writeLong(section.length());
+                offset = align(offset + section.length());
+            }
+
+            long written = headerSize(sections.size());
+
+            for (Section section : sections) {
+                written = pad(out, written);
+                section.write(out);
+                written += section.length();
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException(String.format("Unable to rename [%s] to [%s]", tmp, file));
+        }
+
+        log.info(String.format("Saved %d nodes to [%s] in %d ms", nodes, file, System.currentTimeMillis() - start));
+    }
+
+    public static MappedNamespace open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            // The mapping stays valid once the channel is closed
+            MappedFile mapped = new MappedFile(raf.getChannel());
+
+            if (mapped.length() < headerSize(0) || mapped.getInt(0) != MAGIC) {
+                throw new IOException(String.format("[%s] is not a Sweeper snapshot", file));
+            }
+
+            if (mapped.getInt(4) != VERSION) {
+                throw new IOException(String.format("[%s] has version %d, expected %d", file, mapped.getInt(4), VERSION));
+            }
+
+            return new MappedNamespace(mapped);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static long pad(DataOutputStream out, long written) throws IOException
+    {
+        long aligned = align(written);
+
+        for (long i = written; i < aligned; ++i) {
+            out.write(0);
+        }
+
+        return aligned;
+    }
+
+    static long headerSize(int sections)
+    {
+        return 5 * 4 + sections * (4 + 8 + 8);
+    }
+
+    private static long align(long offset)
+    {
+        return (offset + 7) & ~7L;
+    }
+}
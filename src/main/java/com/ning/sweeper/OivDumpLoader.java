@@ -0,0 +1,436 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Builds a {@link NamespaceIndex} from the delimited output of the offline image viewer
+ * (hadoop oiv -p Delimited), without any namenode RPC.
+ * <p/>
+ * Expected columns: Path, Replication, ModificationTime, AccessTime, PreferredBlockSize,
+ * BlocksCount, FileSize, NSQUOTA, DSQUOTA, Permission, UserName, GroupName.
+ * <p/>
+ * The dump is streamed and parsed straight from a byte buffer: no String or FileStatus is created
+ * per line, names go directly from the buffer to the index name pool.
+ * <p/>
+ * Directory modification times are kept, to the minute as printed in the local time zone, so that
+ * refreshing the index only lists the directories modified since the dump.
+ */
+public class OivDumpLoader
+{
+    private final static Logger log = Logger.getLogger(OivDumpLoader.class.getName());
+
+    private static final int PATH_FIELD = 0;
+    private static final int REPLICATION_FIELD = 1;
+    private static final int MODIFICATION_TIME_FIELD = 2;
+    private static final int ACCESS_TIME_FIELD = 3;
+    private static final int BLOCKS_COUNT_FIELD = 5;
+    private static final int FILE_SIZE_FIELD = 6;
+    private static final int PERMISSION_FIELD = 9;
+    private static final int USER_NAME_FIELD = 10;
+    private static final int GROUP_NAME_FIELD = 11;
+
+    private final byte delimiter;
+
+    private NamespaceIndex index;
+
+    // Directory chain of the previous line's parent: consecutive lines usually share it
+    private int[] ancestors = new int[64];
+    private int depth = 0;
+    private byte[] parentPath = new byte[256];
+    private int parentPathLength = -1;
+
+    // (parent, interned name) -> directory node, open addressing
+    private long[] directoryKeys;
+    private int[] directoryNodes;
+    private int directories;
+
+    private final int[] fieldStarts = new int[GROUP_NAME_FIELD + 2];
+    private long lines = 0;
+
+    // Left out of the index when false
+    private final boolean ages;
+    private final boolean principals;
+
+    public OivDumpLoader(char delimiter)
+    {
+        this(delimiter, true, true);
+    }
+
+    public OivDumpLoader(char delimiter, boolean ages, boolean principals)
+    {
+        this.delimiter = (byte) delimiter;
+        this.ages = ages;
+        this.principals = principals;
+    }
+
+    public NamespaceIndex load(String dumpFile) throws IOException
+    {
+        InputStream in = new FileInputStream(dumpFile);
+
+        try {
+            return load(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public NamespaceIndex load(InputStream in) throws IOException
+    {
+        long start = System.currentTimeMillis();
+
+        index = new NamespaceIndex("/");
+        directoryKeys = new long[1024];
+        directoryNodes = new int[1024];
+        directories = 0;
+        ancestors[0] = index.addDirectory(NamespaceIndex.NONE, "");
+        depth = 1;
+        parentPathLength = 0;
+        lines = 0;
+
+        byte[] buffer = new byte[1 << 16];
+        int length = 0;
+        int read;
+
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+
+            int lineStart = 0;
+
+            for (int i = 0; i < length; ++i) {
+                if (buffer[i] == '\n') {
+                    parseLine(buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+
+            length -= lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        if (length > 0) {
+            parseLine(buffer, 0, length);
+        }
+
+        index.aggregate();
+
+        log.info(String.format("Loaded %d directories and %d files from %d lines in %d ms (~%d MB)",
+            index.getDirectoryCount(NamespaceIndex.ROOT), index.getFileCount(NamespaceIndex.ROOT), lines,
+            System.currentTimeMillis() - start, index.getMemoryUsage() >> 20));
+
+        NamespaceIndex loaded = index;
+
+        // Only needed while loading
+        index = null;
+        directoryKeys = null;
+        directoryNodes = null;
+
+        return loaded;
+    }
+
+    private void parseLine(byte[] line, int start, int end)
+    {
+        if (end > start && line[end - 1] == '\r') {
+            end--;
+        }
+
+        int fields = 0;
+
+        fieldStarts[fields++] = start;
+
+        for (int i = start; i < end && fields < fieldStarts.length; ++i) {
+            if (line[i] == delimiter) {
+                fieldStarts[fields++] = i + 1;
+            }
+        }
+
+        int pathEnd = fields > 1 ? fieldStarts[1] - 1 : end;
+
+        if (fields <= PERMISSION_FIELD || pathEnd == start || line[start] != '/') {
+            // Header, blank or truncated line
+            return;
+        }
+
+        lines++;
+
+        // Repeated slashes would otherwise yield empty names, and throw the ancestors stack off
+        int normalizedEnd = start + 1;
+
+        for (int i = start + 1; i < pathEnd; ++i) {
+            if (line[i] != '/' || line[normalizedEnd - 1] != '/') {
+                line[normalizedEnd++] = line[i];
+            }
+        }
+
+        pathEnd = normalizedEnd;
+
+        // Trailing slashes would otherwise yield empty names
+        while (pathEnd - start > 1 && line[pathEnd - 1] == '/') {
+            pathEnd--;
+        }
+
+        if (pathEnd - start == 1) {
+            // The root itself
+            index.setModificationTime(NamespaceIndex.ROOT, parseTime(line, fieldStarts[MODIFICATION_TIME_FIELD]));
+            setOwner(NamespaceIndex.ROOT, line, fields, end);
+            return;
+        }
+
+        int nameStart = pathEnd;
+
+        while (line[nameStart - 1] != '/') {
+            nameStart--;
+        }
+
+        int parent = resolveParent(line, start, nameStart - 1);
+        boolean isDirectory = line[fieldStarts[PERMISSION_FIELD]] == 'd';
+
+        if (isDirectory) {
+            int directory = getOrCreateDirectory(parent, line, nameStart, pathEnd - nameStart);
+
+            index.setModificationTime(directory, parseTime(line, fieldStarts[MODIFICATION_TIME_FIELD]));
+            setOwner(directory, line, fields, end);
+        }
+        else {
+            long length = parseLong(line, fieldStarts[FILE_SIZE_FIELD], fieldStarts[FILE_SIZE_FIELD + 1] - 1);
+            short replication = (short) parseLong(line, fieldStarts[REPLICATION_FIELD], fieldStarts[REPLICATION_FIELD + 1] - 1);
+            int blocks = (int) parseLong(line, fieldStarts[BLOCKS_COUNT_FIELD], fieldStarts[BLOCKS_COUNT_FIELD + 1] - 1);
+
+            int file = index.addFile(parent, line, nameStart, pathEnd - nameStart, length, replication, blocks);
+
+            if (ages) {
+                index.setLastTouchedDay(file, Math.max(parseDay(line, fieldStarts[MODIFICATION_TIME_FIELD]),
+                    parseDay(line, fieldStarts[ACCESS_TIME_FIELD])));
+            }
+
+            setOwner(file, line, fields, end);
+        }
+    }
+
+    private void setOwner(int node, byte[] line, int fields, int end)
+    {
+        if (!principals || fields <= GROUP_NAME_FIELD) {
+            // Not recorded, or older dumps
+            return;
+        }
+
+        int ownerStart = fieldStarts[USER_NAME_FIELD];
+        int groupStart = fieldStarts[GROUP_NAME_FIELD];
+        int groupEnd = fields > GROUP_NAME_FIELD + 1 ? fieldStarts[GROUP_NAME_FIELD + 1] - 1 : end;
+
+        index.setOwner(node, line, ownerStart, groupStart - 1 - ownerStart, groupStart, groupEnd - groupStart);
+    }
+
+    /**
+     * Points the ancestors stack to the directory at line[start, end), creating missing directories
+     * on the way. Only the components that differ from the previous line's parent are looked up.
+     */
+    private int resolveParent(byte[] line, int start, int end)
+    {
+        int length = end - start;
+
+        if (length == parentPathLength && equals(line, start, parentPath, 0, length)) {
+            return ancestors[depth - 1];
+        }
+
+        // Keep the directories shared with the previous parent, component by component
+        int position = 0;
+
+        depth = 1;
+
+        while (position < length && position < parentPathLength) {
+            int next = indexOfSeparator(line, start + position + 1, end) - start;
+
+            if (next <= parentPathLength && (next == parentPathLength || parentPath[next] == '/')
+                && equals(line, start + position, parentPath, position, next - position)) {
+                depth++;
+                position = next;
+            }
+            else {
+                break;
+            }
+        }
+
+        while (position < length) {
+            int next = indexOfSeparator(line, start + position + 1, end) - start;
+
+            if (next > position + 1) {
+                int directory = getOrCreateDirectory(ancestors[depth - 1], line, start + position + 1, next - position - 1);
+
+                if (depth == ancestors.length) {
+                    ancestors = Arrays.copyOf(ancestors, depth * 2);
+                }
+
+                ancestors[depth++] = directory;
+            }
+
+            position = next;
+        }
+
+        if (parentPath.length < length) {
+            parentPath = new byte[length * 2];
+        }
+
+        System.arraycopy(line, start, parentPath, 0, length);
+        parentPathLength = length;
+
+        return ancestors[depth - 1];
+    }
+
+    private int getOrCreateDirectory(int parent, byte[] line, int start, int length)
+    {
+        int name = index.intern(line, start, length);
+        // +1 so that no valid key is 0, the empty marker
+        long key = (((long) parent) << 32 | name) + 1;
+        int mask = directoryKeys.length - 1;
+        int i = hash(key) & mask;
+
+        while (directoryKeys[i] != 0) {
+            if (directoryKeys[i] == key) {
+                return directoryNodes[i];
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        int directory = index.addDirectory(parent, name);
+
+        directoryKeys[i] = key;
+        directoryNodes[i] = directory;
+
+        if (++directories * 2 > directoryKeys.length) {
+            rehash();
+        }
+
+        return directory;
+    }
+
+    private void rehash()
+    {
+        long[] keys = new long[directoryKeys.length * 2];
+        int[] nodes = new int[keys.length];
+        int mask = keys.length - 1;
+
+        for (int j = 0; j < directoryKeys.length; ++j) {
+            if (directoryKeys[j] != 0) {
+                int i = hash(directoryKeys[j]) & mask;
+
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+
+                keys[i] = directoryKeys[j];
+                nodes[i] = directoryNodes[j];
+            }
+        }
+
+        directoryKeys = keys;
+        directoryNodes = nodes;
+    }
+
+    private static int hash(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static int indexOfSeparator(byte[] line, int start, int end)
+    {
+        for (int i = start; i < end; ++i) {
+            if (line[i] == '/') {
+                return i;
+            }
+        }
+
+        return end;
+    }
+
+    private static boolean equals(byte[] lhs, int lhsStart, byte[] rhs, int rhsStart, int length)
+    {
+        for (int i = 0; i < length; ++i) {
+            if (lhs[lhsStart + i] != rhs[rhsStart + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return days since the epoch of a yyyy-MM-dd HH:mm time, as formatted by the oiv
+     */
+    private static int parseDay(byte[] line, int start)
+    {
+        int year = (int) parseLong(line, start, start + 4);
+        int month = (int) parseLong(line, start + 5, start + 7);
+        int day = (int) parseLong(line, start + 8, start + 10);
+
+        // Days from the civil calendar, years starting in March so that leap days come last
+        if (month <= 2) {
+            year--;
+        }
+
+        int era = year / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return milliseconds since the epoch of a yyyy-MM-dd HH:mm time, as formatted by the oiv
+     */
+    private static long parseTime(byte[] line, int start)
+    {
+        long hours = parseLong(line, start + 11, start + 13);
+        long minutes = parseLong(line, start + 14, start + 16);
+        long local = ((parseDay(line, start) * 24L + hours) * 60 + minutes) * 60000;
+
+        return local - TimeZone.getDefault().getOffset(local);
+    }
+
+    private static long parseLong(byte[] line, int start, int end)
+    {
+        long value = 0;
+
+        for (int i = start; i < end; ++i) {
+            byte b = line[i];
+
+            if (b < '0' || b > '9') {
+                break;
+            }
+
+            value = value * 10 + (b - '0');
+        }
+
+        return value;
+    }
+}
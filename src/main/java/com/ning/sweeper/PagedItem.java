@@ -0,0 +1,33 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Item whose children can be listed in batches, so that huge directories can be displayed
+ * before they are fully listed, and without holding all their children twice.
+ */
+public interface PagedItem extends Item
+{
+    /**
+     * @param batchSize maximum number of children per batch
+     * @return lazy iterator over the children: nothing is fetched until hasNext() is called
+     */
+    public Iterator<List<Item>> listChildren(int batchSize);
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.Iterators;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lists the directories the user is likely to open next, and fetches the sizes of their
+ * children, so that the next column is served from the {@link ItemCache}.
+ * <p/>
+ * Runs on a single low priority thread, only while the {@link FetchScheduler} has nothing else
+ * to do, and at most at the given rate. A new set of targets replaces the previous one: the
+ * directory being prefetched is abandoned at the next call.
+ */
+public class Prefetcher
+{
+    private static final Logger log = Logger.getLogger(Prefetcher.class.getName());
+
+    private static final Metrics.Counter listed = Metrics.counter("prefetch.listed");
+    private static final Metrics.Counter fetched = Metrics.counter("prefetch.fetched");
+    private static final Metrics.Counter superseded = Metrics.counter("prefetch.superseded");
+
+    private static final int LISTING_BATCH_SIZE = 1000;
+    private static final int REMEMBERED_TARGETS = 1024;
+
+    private final FetchScheduler scheduler;
+    private final int top;
+    private final long intervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private List<Item> targets = Collections.emptyList();
+    private int version = 0;
+    // Not prefetched again, even if they become targets again
+    private final Map<Item, Boolean> prefetched = new LinkedHashMap<Item, Boolean>()
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Item, Boolean> eldest)
+        {
+            return size() > REMEMBERED_TARGETS;
+        }
+    };
+
+    // Only accessed by the prefetch thread
+    private long nextNanos = System.nanoTime();
+
+    /**
+     * @param top              number of rows of the newest column to prefetch, besides the hovered one
+     * @param maxRpcPerSecond  cap on the prefetch calls
+     */
+    public Prefetcher(FetchScheduler scheduler, int top, int maxRpcPerSecond)
+    {
+        this.scheduler = scheduler;
+        this.top = top;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxRpcPerSecond);
+
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, "sweeper-prefetch");
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public int getTop()
+    {
+        return top;
+    }
+
+    /**
+     * Prefetch these items, most likely first. Replaces the previous call.
+     */
+    public void prefetch(List<Item> items)
+    {
+        lock.lock();
+
+        try {
+            if (!items.equals(targets)) {
+                targets = new ArrayList<Item>(items);
+                version++;
+                changed.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void work()
+    {
+        while (true) {
+            Item item;
+            int itemVersion;
+
+            lock.lock();
+
+            try {
+                while ((item = next()) == null) {
+                    changed.awaitUninterruptibly();
+                }
+
+                prefetched.put(item, Boolean.TRUE);
+                itemVersion = version;
+            }
+            finally {
+                lock.unlock();
+            }
+
+            try {
+                if (!prefetch(item, itemVersion)) {
+                    superseded.increment();
+                    forget(item);
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            catch (RuntimeException e) {
+                log.debug(String.format("Failed to prefetch [%s] (%s)", item, e.getCause()));
+            }
+        }
+    }
+
+    // Called with the lock held
+    private Item next()
+    {
+        for (Item item : targets) {
+            if (!prefetched.containsKey(item)) {
+                return item;
+            }
+        }
+
+        return null;
+    }
+
+    private void forget(Item item)
+    {
+        lock.lock();
+
+        try {
+            prefetched.remove(item);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isCurrent(int itemVersion)
+    {
+        lock.lock();
+
+        try {
+            return version == itemVersion;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if abandoned for newer targets
+     */
+    private boolean prefetch(Item item, int itemVersion) throws InterruptedException
+    {
+        pace();
+
+        Iterator<List<Item>> batches;
+
+        if (item instanceof PagedItem) {
+            batches = ((PagedItem) item).listChildren(LISTING_BATCH_SIZE);
+        }
+        else {
+            batches = Iterators.partition(item.getChildren().iterator(), LISTING_BATCH_SIZE);
+        }
+
+        // The listing itself is done on the first call
+        batches.hasNext();
+        listed.increment();
+
+        while (batches.hasNext()) {
+            for (Item child : batches.next()) {
+                if (!isCurrent(itemVersion)) {
+                    return false;
+                }
+
+                pace();
+                child.getTotalSize();
+                fetched.increment();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait for the foreground fetches to be done, and for the rate limit
+     */
+    private void pace() throws InterruptedException
+    {
+        scheduler.awaitIdle();
+
+        long delay = nextNanos - System.nanoTime();
+
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+
+        nextNanos = Math.max(nextNanos, System.nanoTime()) + intervalNanos;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Share of a {@link Namespace} node owned by one owner or group: only its files count, and only
+ * the children holding some of them are listed, so drilling down shows where the principal's
+ * usage is.
+ * <p/>
+ * The namespace keeps no per principal totals, which would cost every directory a map: the
+ * first listing walks the subtree once and sums the principal's files of every directory under
+ * it, shared by all the items drilled down from there.
+ */
+public class PrincipalItem implements Item
+{
+    private final Namespace namespace;
+    private final int node;
+    private final int principal;
+    private final boolean byGroup;
+    private final String name;
+    private final long[] totals;
+    private final Subtree subtree;
+    private final ContentSummaryTypes contentSummaryType;
+
+    /**
+     * @param totals the {@link Usage} totals of the principal's files under node
+     */
+    PrincipalItem(Namespace namespace, int node, int principal, boolean byGroup, String name, long[] totals, ContentSummaryTypes contentSummaryType)
+    {
+        this(namespace, node, principal, byGroup, name, totals, new Subtree(namespace, node, principal, byGroup), contentSummaryType);
+    }
+
+    private PrincipalItem(Namespace namespace, int node, int principal, boolean byGroup, String name, long[] totals, Subtree subtree, ContentSummaryTypes contentSummaryType)
+    {
+        this.namespace = namespace;
+        this.node = node;
+        this.principal = principal;
+        this.byGroup = byGroup;
+        this.name = name;
+        this.totals = totals;
+        this.subtree = subtree;
+        this.contentSummaryType = contentSummaryType;
+    }
+
+    /**
+     * Totals of the principal's files per directory of a subtree, summed in a single walk
+     */
+    private static class Subtree
+    {
+        private final Namespace namespace;
+        private final int root;
+        private final int principal;
+        private final boolean byGroup;
+
+        // Only directories holding some of the principal's files, guarded by this
+        private Map<Integer, long[]> directories = null;
+
+        private Subtree(Namespace namespace, int root, int principal, boolean byGroup)
+        {
+            this.namespace = namespace;
+            this.root = root;
+            this.principal = principal;
+            this.byGroup = byGroup;
+        }
+
+        /**
+         * @return the totals of the principal's files under node, null if none
+         */
+        private long[] getTotals(int node)
+        {
+            if (!namespace.isDirectory(node)) {
+                if (!isOwned(node)) {
+                    return null;
+                }
+
+                long[] totals = new long[Usage.FIELDS];
+
+                add(totals, namespace, node);
+
+                return totals;
+            }
+
+            synchronized (this) {
+                if (directories == null) {
+                    directories = sum();
+                }
+
+                return directories.get(node);
+            }
+        }
+
+        private boolean isOwned(int file)
+        {
+            return (byGroup ? namespace.getGroup(file) : namespace.getOwner(file)) == principal;
+        }
+
+        private Map<Integer, long[]> sum()
+        {
+            Map<Integer, long[]> directories = new HashMap<Integer, long[]>();
+            int[] stack = new int[64];
+            int depth = 0;
+
+            stack[depth++] = root;
+
+            while (depth > 0) {
+                int current = stack[--depth];
+
+                if (namespace.isDirectory(current)) {
+                    for (int child = namespace.getFirstChild(current); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                        if (depth == stack.length) {
+                            stack = Arrays.copyOf(stack, depth * 2);
+                        }
+
+                        stack[depth++] = child;
+                    }
+                }
+                else if (current != root && isOwned(current)) {
+                    for (int directory = namespace.getParent(current); ; directory = namespace.getParent(directory)) {
+                        long[] totals = directories.get(directory);
+
+                        if (totals == null) {
+                            totals = new long[Usage.FIELDS];
+                            directories.put(directory, totals);
+                        }
+
+                        add(totals, namespace, current);
+
+                        if (directory == root) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            return directories;
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return getTotalSize(totals, contentSummaryType);
+    }
+
+    static long getTotalSize(long[] totals, ContentSummaryTypes contentSummaryType)
+    {
+        long fileCount = totals[Usage.FILE_COUNT];
+        long blockCount = totals[Usage.BLOCK_COUNT];
+
+        switch (contentSummaryType) {
+            case SPACE_USED:
+                return totals[Usage.SPACE_CONSUMED];
+            case LENGTH:
+                return totals[Usage.LENGTH];
+            case NUMBER_OF_FILES:
+                return fileCount;
+            case NUMBER_OF_BLOCKS:
+                return blockCount;
+            case AVERAGE_FILE_SIZE:
+                return fileCount == 0 ? 0 : totals[Usage.LENGTH] / fileCount;
+            case NAMENODE_OBJECTS:
+                return NamenodeCost.getObjectCount(fileCount, 0, blockCount);
+            case NAMENODE_HEAP:
+                return NamenodeCost.getHeapBytes(fileCount, 0, blockCount);
+            default:
+                // Directories, quotas and histograms are not split by principal
+                return UNKNOWN_SIZE;
+        }
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+
+        for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            long[] childTotals = subtree.getTotals(child);
+
+            if (childTotals != null) {
+                String childName = namespace.isDirectory(child) ? "/" + namespace.getName(child) : namespace.getName(child);
+
+                children.add(new PrincipalItem(namespace, child, principal, byGroup, childName, childTotals, subtree, contentSummaryType));
+            }
+        }
+
+        return children.build();
+    }
+
+    static void add(long[] totals, Namespace namespace, int file)
+    {
+        totals[Usage.SPACE_CONSUMED] += namespace.getSpaceConsumed(file);
+        totals[Usage.LENGTH] += namespace.getLength(file);
+        totals[Usage.FILE_COUNT]++;
+        totals[Usage.BLOCK_COUNT] += namespace.getBlockCount(file);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof PrincipalItem)) {
+            return false;
+        }
+
+        PrincipalItem other = (PrincipalItem) o;
+
+        return namespace == other.namespace && node == other.node && principal == other.principal
+            && byGroup == other.byGroup && name.equals(other.name) && contentSummaryType == other.contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * System.identityHashCode(namespace) + node) + principal;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ":" + getTotalSize();
+    }
+}
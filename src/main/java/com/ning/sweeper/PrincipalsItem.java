@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Breakdown of a {@link Namespace} node by owner or group: one {@link PrincipalItem} child per
+ * principal owning files under it, itself listing its top directories. Rooted at the root of the
+ * namespace, this is the usage of every owner (or group) across the cluster.
+ */
+public class PrincipalsItem implements Item
+{
+    private static final String UNKNOWN = "<unknown>";
+
+    private final Namespace namespace;
+    private final int node;
+    private final boolean byGroup;
+    private final ContentSummaryTypes contentSummaryType;
+
+    public PrincipalsItem(Namespace namespace, int node, boolean byGroup, ContentSummaryTypes contentSummaryType)
+    {
+        this.namespace = namespace;
+        this.node = node;
+        this.byGroup = byGroup;
+        this.contentSummaryType = contentSummaryType;
+    }
+
+    @Override
+    public String getName()
+    {
+        return String.format("/%s by %s", namespace.getName(node), byGroup ? "group" : "owner");
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return NamespaceItem.getTotalSize(namespace, node, contentSummaryType);
+    }
+
+    /**
+     * Sums every principal's totals in a single walk of the subtree
+     */
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        Map<Integer, long[]> totals = new HashMap<Integer, long[]>();
+        int[] stack = new int[64];
+        int depth = 0;
+
+        stack[depth++] = node;
+
+        while (depth > 0) {
+            int current = stack[--depth];
+
+            if (namespace.isDirectory(current)) {
+                for (int child = namespace.getFirstChild(current); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+
+                    stack[depth++] = child;
+                }
+            }
+            else {
+                int principal = byGroup ? namespace.getGroup(current) : namespace.getOwner(current);
+                long[] principalTotals = totals.get(principal);
+
+                if (principalTotals == null) {
+                    principalTotals = new long[Usage.FIELDS];
+                    totals.put(principal, principalTotals);
+                }
+
+                PrincipalItem.add(principalTotals, namespace, current);
+            }
+        }
+
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+
+        for (Map.Entry<Integer, long[]> entry : totals.entrySet()) {
+            int principal = entry.getKey();
+            String name = principal == Namespace.NONE ? UNKNOWN : namespace.getPrincipal(principal);
+
+            children.add(new PrincipalItem(namespace, node, principal, byGroup, name, entry.getValue(), contentSummaryType));
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof PrincipalsItem)) {
+            return false;
+        }
+
+        PrincipalsItem other = (PrincipalsItem) o;
+
+        return namespace == other.namespace && node == other.node && byGroup == other.byGroup && contentSummaryType == other.contentSummaryType;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * System.identityHashCode(namespace) + node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName() + ":" + getTotalSize();
+    }
+}
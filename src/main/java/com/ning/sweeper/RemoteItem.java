@@ -0,0 +1,345 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Item} browsed from a {@link SweeperServer}: children come page by page along with their
+ * sizes, so browsing costs one request per page and none per size.
+ * <p/>
+ * Pages don't change within a generation of the namespace served, so they are kept and listed
+ * again without any request. Once the server serves a new generation, items of the previous one
+ * can't be listed anymore (unless kept): browse again from {@link #open}.
+ */
+public class RemoteItem implements PagedItem
+{
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+    private static final int CACHED_PAGES = 256;
+
+    private static final Metrics.Latency requestLatency = Metrics.latency("remote.request");
+    private static final Metrics.Counter cached = Metrics.counter("remote.cached");
+
+    private final Server server;
+    private final int node;
+    private final String name;
+    private final boolean isDirectory;
+    // Indexed by ContentSummaryTypes ordinal
+    private final long[] sizes;
+
+    /**
+     * Connection to a server, shared by all the items browsed from it
+     */
+    private static class Server
+    {
+        private final String url;
+        private final ContentSummaryTypes contentSummaryType;
+        private final String rootPath;
+        private final String generation;
+        // Type of each size sent by the server, null for the ones unknown to this client
+        private final ContentSummaryTypes[] types;
+
+        // Access ordered: least recently used first
+        private final Map<String, List<String>> pages = new LinkedHashMap<String, List<String>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest)
+            {
+                return size() > CACHED_PAGES;
+            }
+        };
+
+        private Server(String url, ContentSummaryTypes contentSummaryType, String rootPath, String generation, String types)
+        {
+            this.url = url;
+            this.contentSummaryType = contentSummaryType;
+            this.rootPath = rootPath;
+            this.generation = generation;
+
+            String[] names = types.split(",");
+
+            this.types = new ContentSummaryTypes[names.length];
+
+            for (int i = 0; i < names.length; ++i) {
+                for (ContentSummaryTypes type : ContentSummaryTypes.values()) {
+                    if (type.name().equals(names[i])) {
+                        this.types[i] = type;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param url of the server, e.g. http://sweeper.example.com:8080
+     * @return the root of the namespace served
+     */
+    public static RemoteItem open(String url, ContentSummaryTypes contentSummaryType) throws IOException
+    {
+        List<String> root = get(null, String.format("%s/root", url));
+
+        if (root.size() != 4) {
+            throw new IOException(String.format("Unexpected answer from [%s]", url));
+        }
+
+        Server server = new Server(url, contentSummaryType, URLDecoder.decode(root.get(1), "UTF-8"), root.get(3), root.get(2));
+
+        return parse(server, root.get(0));
+    }
+
+    private RemoteItem(Server server, int node, String name, boolean isDirectory, long[] sizes)
+    {
+        this.server = server;
+        this.node = node;
+        this.name = name;
+        this.isDirectory = isDirectory;
+        this.sizes = sizes;
+    }
+
+    /**
+     * @return absolute path of the root of the namespace served
+     */
+    public String getRootPath()
+    {
+        return server.rootPath;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return getTotalSize(server.contentSummaryType);
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return sizes[contentSummaryType.ordinal()];
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+        Iterator<List<Item>> batches = listChildren(1000);
+
+        while (batches.hasNext()) {
+            children.addAll(batches.next());
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public Iterator<List<Item>> listChildren(final int batchSize)
+    {
+        return new Iterator<List<Item>>()
+        {
+            private List<Item> batch = null;
+            private int after = Namespace.NONE;
+            private boolean last = !isDirectory;
+
+            @Override
+            public boolean hasNext()
+            {
+                if (batch == null && !last) {
+                    String url = String.format("%s/children?generation=%s&node=%d&limit=%d", server.url, server.generation, node, batchSize);
+
+                    if (after != Namespace.NONE) {
+                        url += "&after=" + after;
+                    }
+
+                    List<String> lines;
+
+                    try {
+                        lines = get(server, url);
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    batch = new ArrayList<Item>(lines.size());
+
+                    for (String line : lines) {
+                        RemoteItem child = parse(server, line);
+
+                        batch.add(child);
+                        after = child.node;
+                    }
+
+                    last = lines.size() < batchSize;
+                }
+
+                return batch != null && !batch.isEmpty();
+            }
+
+            @Override
+            public List<Item> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<Item> next = batch;
+
+                batch = null;
+
+                return next;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static RemoteItem parse(Server server, String line)
+    {
+        String[] fields = line.split("\t", 4);
+
+        if (fields.length != 4) {
+            throw new IllegalArgumentException(String.format("Invalid node [%s]", line));
+        }
+
+        boolean isDirectory = fields[1].equals("d");
+        String name;
+
+        try {
+            name = URLDecoder.decode(fields[3], "UTF-8");
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        String[] values = fields[2].split(",");
+        long[] sizes = new long[ContentSummaryTypes.values().length];
+
+        Arrays.fill(sizes, UNKNOWN_SIZE);
+
+        for (int i = 0; i < Math.min(values.length, server.types.length); ++i) {
+            if (server.types[i] != null) {
+                sizes[server.types[i].ordinal()] = Long.parseLong(values[i]);
+            }
+        }
+
+        return new RemoteItem(server, Integer.parseInt(fields[0]), isDirectory ? "/" + name : name, isDirectory, sizes);
+    }
+
+    /**
+     * @param server null not to cache the page
+     */
+    private static List<String> get(Server server, String url) throws IOException
+    {
+        if (server != null) {
+            synchronized (server.pages) {
+                List<String> page = server.pages.get(url);
+
+                if (page != null) {
+                    cached.increment();
+
+                    return page;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        try {
+            int status = connection.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_GONE) {
+                throw new IOException(String.format("[%s] was refreshed on the server, browse it again", server == null ? url : server.rootPath));
+            }
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("[%s] answered %d", url, status));
+            }
+
+            List<String> lines = new ArrayList<String>();
+            InputStream in = connection.getInputStream();
+
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            finally {
+                in.close();
+            }
+
+            if (server != null) {
+                synchronized (server.pages) {
+                    server.pages.put(url, lines);
+                }
+            }
+
+            return lines;
+        }
+        finally {
+            requestLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof RemoteItem && server == ((RemoteItem) o).server && node == ((RemoteItem) o).node;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * System.identityHashCode(server) + node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ":" + getTotalSize();
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ReportFormats;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Headless report of a crawl, for cron jobs and pipelines.
+ * <p/>
+ * Directories up to a given depth are written as soon as they are crawled. The top directories
+ * by space, file count, namenode heap, small files, average file size and space untouched for a
+ * year are kept in bounded heaps and written at the end, so memory doesn't grow with the
+ * namespace. The {@link Usage} of every owner and group can follow, largest first.
+ */
+public class Report implements Crawler.Listener
+{
+    private final static int COLD_DAYS = 365;
+
+    // Below this, a directory with a single small file would top the ratio and average rankings
+    private final static long MIN_FILES_FOR_RATIO = 100;
+
+    private final Writer out;
+    private final ReportFormats format;
+    private final int top;
+    private final int depth;
+
+    private final List<Ranking> rankings = new ArrayList<Ranking>();
+
+    public Report(Writer out, ReportFormats format, int top, int depth) throws IOException
+    {
+        this.out = out;
+        this.format = format;
+        this.top = top;
+        this.depth = depth;
+
+        rankings.add(new Ranking("top_space_consumed")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                return summary.getSpaceConsumed();
+            }
+        });
+        rankings.add(new Ranking("top_files")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                return summary.getFileCount();
+            }
+        });
+        rankings.add(new Ranking("top_namenode_heap")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                return summary.getNamenodeHeap();
+            }
+        });
+        rankings.add(new Ranking("top_small_file_ratio")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                if (summary.getFileCount() < MIN_FILES_FOR_RATIO) {
+                    return Double.NaN;
+                }
+
+                return (double) summary.getSmallFileCount() / summary.getFileCount();
+            }
+        });
+        rankings.add(new Ranking("top_small_files")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                return summary.getSmallFileCount();
+            }
+        });
+        rankings.add(new Ranking("bottom_average_file_size")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                if (summary.getFileCount() < MIN_FILES_FOR_RATIO) {
+                    return Double.NaN;
+                }
+
+                return -summary.getAverageFileSize();
+            }
+        });
+        rankings.add(new Ranking("top_cold_space")
+        {
+            @Override
+            protected double getValue(Summary summary)
+            {
+                return summary.getColdSpace(COLD_DAYS);
+            }
+        });
+
+        if (format == ReportFormats.CSV) {
+            out.write("section,path,space_consumed,length,files,directories,blocks,namenode_heap,small_files,average_file_size,file_size_histogram,cold_space,age_histogram\n");
+        }
+    }
+
+    @Override
+    public void directoryCrawled(Path path, int depth, Summary summary)
+    {
+        String name = path.toUri().getPath();
+
+        try {
+            if (depth <= this.depth) {
+                write("directory", name, summary);
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (Ranking ranking : rankings) {
+            ranking.offer(name, summary);
+        }
+    }
+
+    /**
+     * Write the rankings. The writer is flushed but not closed.
+     */
+    public void finish() throws IOException
+    {
+        finish(null);
+    }
+
+    /**
+     * Write the rankings, then the usage per owner and group if any. The writer is flushed but
+     * not closed.
+     */
+    public void finish(Usage usage) throws IOException
+    {
+        for (Ranking ranking : rankings) {
+            for (Entry entry : ranking.getEntries()) {
+                write(ranking.name, entry.path, entry.summary);
+            }
+        }
+
+        if (usage != null) {
+            write("owner", usage.getOwners());
+            write("group", usage.getGroups());
+        }
+
+        out.flush();
+    }
+
+    private void write(String section, final Usage.Counters counters) throws IOException
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+
+        for (int id = 0; id < counters.size(); ++id) {
+            ids.add(id);
+        }
+
+        Collections.sort(ids, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.valueOf(counters.get(b, Usage.SPACE_CONSUMED)).compareTo(counters.get(a, Usage.SPACE_CONSUMED));
+            }
+        });
+
+        for (int id : ids) {
+            long length = counters.get(id, Usage.LENGTH);
+            long fileCount = counters.get(id, Usage.FILE_COUNT);
+
+            switch (format) {
+                case CSV:
+                    // Same columns as directories, those not split by principal left empty
+                    out.write(String.format("%s,%s,%d,%d,%d,,%d,,,%d,,,\n",
+                        section, csvEscape(counters.getName(id)), counters.get(id, Usage.SPACE_CONSUMED), length,
+                        fileCount, counters.get(id, Usage.BLOCK_COUNT), fileCount == 0 ? 0 : length / fileCount));
+                    break;
+                case JSON:
+                    out.write(String.format("{\"section\":\"%s\",\"name\":\"%s\",\"space_consumed\":%d,\"length\":%d,\"files\":%d,\"blocks\":%d,\"average_file_size\":%d}\n",
+                        section, jsonEscape(counters.getName(id)), counters.get(id, Usage.SPACE_CONSUMED), length,
+                        fileCount, counters.get(id, Usage.BLOCK_COUNT), fileCount == 0 ? 0 : length / fileCount));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unsupported report format [%s]", format));
+            }
+        }
+    }
+
+    private void write(String section, String path, Summary summary) throws IOException
+    {
+        switch (format) {
+            case CSV:
+                out.write(String.format("%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%s,%d,%s\n",
+                    section, csvEscape(path), summary.getSpaceConsumed(), summary.getLength(),
+                    summary.getFileCount(), summary.getDirectoryCount(), summary.getBlockCount(),
+                    summary.getNamenodeHeap(), summary.getSmallFileCount(),
+                    summary.getAverageFileSize(), histogram(summary, " "),
+                    summary.getColdSpace(COLD_DAYS), ageHistogram(summary, " ")));
+                break;
+            case JSON:
+                // One object per line, so that the output can be consumed while it is written
+                out.write(String.format("{\"section\":\"%s\",\"path\":\"%s\",\"space_consumed\":%d,\"length\":%d,\"files\":%d,\"directories\":%d,\"blocks\":%d,\"namenode_heap\":%d,\"small_files\":%d,\"average_file_size\":%d,\"file_size_histogram\":[%s],\"cold_space\":%d,\"age_histogram\":[%s]}\n",
+                    section, jsonEscape(path), summary.getSpaceConsumed(), summary.getLength(),
+                    summary.getFileCount(), summary.getDirectoryCount(), summary.getBlockCount(),
+                    summary.getNamenodeHeap(), summary.getSmallFileCount(),
+                    summary.getAverageFileSize(), histogram(summary, ","),
+                    summary.getColdSpace(COLD_DAYS), ageHistogram(summary, ",")));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported report format [%s]", format));
+        }
+    }
+
+    /**
+     * @return the {@link FileSizeHistogram} buckets, empty files first
+     */
+    private static String histogram(Summary summary, String separator)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+            if (bucket > 0) {
+                builder.append(separator);
+            }
+
+            builder.append(summary.getFileCount(bucket));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @return the space consumed in each {@link FileAgeHistogram} bucket, most recent first
+     */
+    private static String ageHistogram(Summary summary, String separator)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+            if (bucket > 0) {
+                builder.append(separator);
+            }
+
+            builder.append(summary.getSpaceConsumed(bucket));
+        }
+
+        return builder.toString();
+    }
+
+    private static String csvEscape(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonEscape(String value)
+    {
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static class Entry
+    {
+        private final String path;
+        private final Summary summary;
+        private final double value;
+
+        private Entry(String path, Summary summary, double value)
+        {
+            this.path = path;
+            this.summary = summary;
+            this.value = value;
+        }
+    }
+
+    private final static Comparator<Entry> BY_VALUE = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            return Double.compare(a.value, b.value);
+        }
+    };
+
+    private abstract class Ranking
+    {
+        private final String name;
+        // Min-heap: the smallest of the top entries is the one to evict
+        private final PriorityQueue<Entry> entries = new PriorityQueue<Entry>(top + 1, BY_VALUE);
+
+        private Ranking(String name)
+        {
+            this.name = name;
+        }
+
+        protected abstract double getValue(Summary summary);
+
+        private void offer(String path, Summary summary)
+        {
+            double value = getValue(summary);
+
+            if (Double.isNaN(value) || top <= 0) {
+                return;
+            }
+
+            if (entries.size() < top) {
+                entries.add(new Entry(path, summary, value));
+            }
+            else if (value > entries.peek().value) {
+                entries.poll();
+                entries.add(new Entry(path, summary, value));
+            }
+        }
+
+        private List<Entry> getEntries()
+        {
+            List<Entry> sorted = new ArrayList<Entry>(entries);
+
+            Collections.sort(sorted, Collections.reverseOrder(BY_VALUE));
+
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.ning.sweeper.config.ContentSummaryTypes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Decorates any item so that its children matching a {@link RollupRule} are collapsed into one
+ * virtual child per label, e.g. tens of thousands of dt=YYYY-MM-DD partitions into a few hundred
+ * months. A group lists its members when opened, themselves decorated, so hour=HH partitions
+ * under a day can be collapsed too.
+ * <p/>
+ * Other children are passed through batch by batch as they are listed; groups follow once the
+ * listing is done, as only then are their members known. A group sums its members as their
+ * sizes arrive, every measure at once, so switching measures doesn't sum them again.
+ */
+public class RollupItem implements PagedItem, CachedItem
+{
+    private static final int LISTING_BATCH_SIZE = 1000;
+
+    private final Item item;
+    private final List<RollupRule> rules;
+
+    public RollupItem(Item item, List<RollupRule> rules)
+    {
+        this.item = item;
+        this.rules = rules;
+    }
+
+    @Override
+    public String getName()
+    {
+        return item.getName();
+    }
+
+    @Override
+    public long getTotalSize()
+    {
+        return item.getTotalSize();
+    }
+
+    @Override
+    public long getTotalSize(ContentSummaryTypes contentSummaryType)
+    {
+        return item.getTotalSize(contentSummaryType);
+    }
+
+    @Override
+    public ImmutableList<Item> getChildren()
+    {
+        ImmutableList.Builder<Item> children = ImmutableList.builder();
+        Iterator<List<Item>> batches = listChildren(LISTING_BATCH_SIZE);
+
+        while (batches.hasNext()) {
+            children.addAll(batches.next());
+        }
+
+        return children.build();
+    }
+
+    @Override
+    public Iterator<List<Item>> listChildren(final int batchSize)
+    {
+        final Iterator<List<Item>> batches = item instanceof PagedItem
+            ? ((PagedItem) item).listChildren(batchSize)
+            : Iterators.partition(item.getChildren().iterator(), batchSize);
+
+        return new Iterator<List<Item>>()
+        {
+            // By rule, then label: each rule collapses its own matches
+            private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+            private List<Item> next = null;
+            private boolean grouped = false;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (next == null && batches.hasNext()) {
+                    List<Item> batch = new ArrayList<Item>();
+
+                    for (Item child : batches.next()) {
+                        if (!addToGroup(child)) {
+                            batch.add(new RollupItem(child, rules));
+                        }
+                    }
+
+                    if (!batch.isEmpty()) {
+                        next = batch;
+                    }
+                }
+
+                if (next == null && !grouped) {
+                    grouped = true;
+                    next = new ArrayList<Item>(groups.size());
+
+                    for (Group group : groups.values()) {
+                        // Nothing to collapse
+                        next.add(group.members.size() == 1 ? group.members.get(0) : group);
+                    }
+
+                    groups.clear();
+
+                    if (next.isEmpty()) {
+                        next = null;
+                    }
+                }
+
+                return next != null;
+            }
+
+            private boolean addToGroup(Item child)
+            {
+                String name = child.getName();
+                String unslashed = name.startsWith("/") ? name.substring(1) : name;
+
+                for (int i = 0; i < rules.size(); ++i) {
+                    String label = rules.get(i).getLabel(unslashed);
+
+                    if (label != null) {
+                        String key = i + "/" + label;
+                        Group group = groups.get(key);
+
+                        if (group == null) {
+                            group = new Group(name.startsWith("/") ? "/" + label : label);
+                            groups.put(key, group);
+                        }
+
+                        group.members.add(new RollupItem(child, rules));
+
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public List<Item> next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<Item> batch = next;
+
+                next = null;
+
+                return batch;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void pin()
+    {
+        if (item instanceof CachedItem) {
+            ((CachedItem) item).pin();
+        }
+    }
+
+    @Override
+    public void unpin()
+    {
+        if (item instanceof CachedItem) {
+            ((CachedItem) item).unpin();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof RollupItem && item.equals(((RollupItem) o).item);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return item.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return item.toString();
+    }
+
+    /**
+     * Virtual item summing the siblings collapsed under one label
+     */
+    static class Group implements Item
+    {
+        private static final ContentSummaryTypes[] TYPES = ContentSummaryTypes.values();
+
+        private final String name;
+        // Only added to while listing, before the group is handed out
+        private final List<Item> members = new ArrayList<Item>();
+
+        // Guarded by this: members before summed are already added up
+        private int summed = 0;
+        private long totalSize = 0;
+        private final long[] totalSizes = new long[TYPES.length];
+
+        private Group(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public long getTotalSize()
+        {
+            sum();
+
+            synchronized (this) {
+                return totalSize;
+            }
+        }
+
+        @Override
+        public long getTotalSize(ContentSummaryTypes contentSummaryType)
+        {
+            sum();
+
+            synchronized (this) {
+                switch (contentSummaryType) {
+                    case AVERAGE_FILE_SIZE:
+                        long length = totalSizes[ContentSummaryTypes.LENGTH.ordinal()];
+                        long fileCount = totalSizes[ContentSummaryTypes.NUMBER_OF_FILES.ordinal()];
+
+                        return length == UNKNOWN_SIZE || fileCount == UNKNOWN_SIZE || fileCount == 0 ? UNKNOWN_SIZE : length / fileCount;
+                    case QUOTA:
+                    case SPACE_QUOTA:
+                        // Quotas are per directory, they don't add up
+                        return UNKNOWN_SIZE;
+                    default:
+                        return totalSizes[contentSummaryType.ordinal()];
+                }
+            }
+        }
+
+        /**
+         * Fetch the members not summed yet, in this thread. A member's size is fetched once, the
+         * other measures come with it.
+         */
+        private synchronized void sum()
+        {
+            while (summed < members.size()) {
+                Item member = members.get(summed++);
+
+                totalSize = add(totalSize, member.getTotalSize());
+
+                for (ContentSummaryTypes type : TYPES) {
+                    totalSizes[type.ordinal()] = add(totalSizes[type.ordinal()], member.getTotalSize(type));
+                }
+            }
+        }
+
+        private static long add(long total, long size)
+        {
+            return total == UNKNOWN_SIZE || size == UNKNOWN_SIZE ? UNKNOWN_SIZE : total + size;
+        }
+
+        @Override
+        public ImmutableList<Item> getChildren()
+        {
+            return ImmutableList.copyOf(members);
+        }
+
+        @Override
+        public String toString()
+        {
+            return getName() + ":" + getTotalSize();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pattern collapsing sibling items into one group per label, e.g. daily partitions into months
+ * with dt=(\d{4}-\d{2})-\d{2} -> dt=$1.
+ * <p/>
+ * Patterns are regular expressions matched against whole names (without the leading slash of
+ * directories), or globs when prefixed with glob:, in which every * and ? is a capture group.
+ * Labels are replacement templates referring to the groups ($1, $2...), by default the captured
+ * groups joined with dashes.
+ */
+public class RollupRule
+{
+    private static final String GLOB_PREFIX = "glob:";
+    private static final String LABEL_SEPARATOR = "->";
+
+    private final Pattern pattern;
+    private final String label;
+
+    /**
+     * @param label null for the captured groups joined with dashes
+     */
+    public RollupRule(String pattern, String label)
+    {
+        this.pattern = Pattern.compile(pattern.startsWith(GLOB_PREFIX) ? globToRegex(pattern.substring(GLOB_PREFIX.length())) : pattern);
+        this.label = label;
+    }
+
+    /**
+     * @param rules separated by semicolons, each a pattern optionally followed by -> and a label
+     */
+    public static List<RollupRule> parse(String rules)
+    {
+        List<RollupRule> parsed = new ArrayList<RollupRule>();
+
+        for (String rule : rules.split(";")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+
+            int separator = rule.lastIndexOf(LABEL_SEPARATOR);
+
+            if (separator < 0) {
+                parsed.add(new RollupRule(rule.trim(), null));
+            }
+            else {
+                parsed.add(new RollupRule(rule.substring(0, separator).trim(), rule.substring(separator + LABEL_SEPARATOR.length()).trim()));
+            }
+        }
+
+        return parsed;
+    }
+
+    /**
+     * @param name without the leading slash of directories
+     * @return the label of the group the name belongs to, null if it doesn't match
+     */
+    public String getLabel(String name)
+    {
+        Matcher matcher = pattern.matcher(name);
+
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        if (label != null) {
+            StringBuffer buffer = new StringBuffer();
+
+            // The whole name matches: only the replacement is appended
+            matcher.appendReplacement(buffer, label);
+
+            return buffer.toString();
+        }
+
+        if (matcher.groupCount() == 0) {
+            return pattern.pattern();
+        }
+
+        StringBuilder builder = new StringBuilder();
+
+        for (int group = 1; group <= matcher.groupCount(); ++group) {
+            if (group > 1) {
+                builder.append('-');
+            }
+
+            builder.append(matcher.group(group));
+        }
+
+        return builder.toString();
+    }
+
+    private static String globToRegex(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append("(.*?)");
+            }
+            else if (c == '?') {
+                regex.append("(.)");
+            }
+            else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            }
+            else {
+                regex.append(c);
+            }
+        }
+
+        return regex.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return label == null ? pattern.pattern() : pattern.pattern() + " " + LABEL_SEPARATOR + " " + label;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Mutable totals of a subtree, accumulated during a crawl.
+ */
+public class Summary
+{
+    private long spaceConsumed = 0;
+    private long length = 0;
+    private long fileCount = 0;
+    private long directoryCount = 0;
+    private long blockCount = 0;
+    private final int[] histogram = new int[FileSizeHistogram.BUCKETS];
+    private final long[] ageHistogram = new long[FileAgeHistogram.BUCKETS];
+
+    /**
+     * @param asOfDay day of the crawl, see {@link FileAgeHistogram#getToday()}
+     */
+    public void addFile(FileStatus status, int asOfDay)
+    {
+        spaceConsumed += status.getLen() * status.getReplication();
+        length += status.getLen();
+        fileCount++;
+        blockCount += NamenodeCost.getBlockCount(status.getLen(), status.getBlockSize());
+        histogram[FileSizeHistogram.getBucket(status.getLen())]++;
+
+        int day = FileAgeHistogram.getDay(status.getAccessTime(), status.getModificationTime());
+
+        ageHistogram[FileAgeHistogram.getBucket(day, asOfDay)] += status.getLen() * status.getReplication();
+    }
+
+    public void addDirectory(Summary directory)
+    {
+        spaceConsumed += directory.spaceConsumed;
+        length += directory.length;
+        fileCount += directory.fileCount;
+        directoryCount += directory.directoryCount + 1;
+        blockCount += directory.blockCount;
+
+        for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+            histogram[bucket] += directory.histogram[bucket];
+        }
+
+        for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+            ageHistogram[bucket] += directory.ageHistogram[bucket];
+        }
+    }
+
+    public long getSpaceConsumed()
+    {
+        return spaceConsumed;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public long getFileCount()
+    {
+        return fileCount;
+    }
+
+    /**
+     * @return number of directories, not counting the summarized directory itself
+     */
+    public long getDirectoryCount()
+    {
+        return directoryCount;
+    }
+
+    /**
+     * @return number of files smaller than {@link FileSizeHistogram#SMALL_FILE_LENGTH}, as in the browser
+     */
+    public long getSmallFileCount()
+    {
+        long count = 0;
+
+        // Exact, as the threshold is a bucket bound
+        for (int bucket = 0; bucket < FileSizeHistogram.getBucket(FileSizeHistogram.SMALL_FILE_LENGTH); ++bucket) {
+            count += histogram[bucket];
+        }
+
+        return count;
+    }
+
+    public long getBlockCount()
+    {
+        return blockCount;
+    }
+
+    /**
+     * @return estimated namenode heap used by the summarized directory and everything under it
+     */
+    public long getNamenodeHeap()
+    {
+        return NamenodeCost.getHeapBytes(fileCount, directoryCount + 1, blockCount);
+    }
+
+    public long getAverageFileSize()
+    {
+        return fileCount == 0 ? 0 : length / fileCount;
+    }
+
+    /**
+     * @return number of files in the given {@link FileSizeHistogram} bucket
+     */
+    public int getFileCount(int bucket)
+    {
+        return histogram[bucket];
+    }
+
+    /**
+     * @return space consumed by files in the given {@link FileAgeHistogram} bucket
+     */
+    public long getSpaceConsumed(int ageBucket)
+    {
+        return ageHistogram[ageBucket];
+    }
+
+    /**
+     * @param days one of the {@link FileAgeHistogram} bounds
+     * @return space consumed by files not touched for at least that many days
+     */
+    public long getColdSpace(int days)
+    {
+        long space = 0;
+
+        for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+            if (FileAgeHistogram.getLowerBound(bucket) >= days) {
+                space += ageHistogram[bucket];
+            }
+        }
+
+        return space;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d bytes (%d replicated) in %d files and %d directories", length, spaceConsumed, fileCount, directoryCount);
+    }
+}
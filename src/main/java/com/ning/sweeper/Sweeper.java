@@ -17,7 +17,10 @@
 package com.ning.sweeper;
 
 import com.ning.sweeper.config.ContentSummaryTypes;
+import com.ning.sweeper.config.ReportFormats;
 import com.ning.sweeper.config.SweeperConfig;
+import com.ning.sweeper.config.SweeperModes;
+import com.ning.sweeper.config.UsageViews;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.log4j.Logger;
@@ -25,19 +28,75 @@ import org.skife.config.ConfigurationObjectFactory;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Sweeper
 {
     private final static Logger log = Logger.getLogger(Sweeper.class.getName());
 
+    // Created on first use, not needed to browse a snapshot or a server
+    private static FileSystem fileSystem = null;
+
+    // Not available from getContentSummary (no file size or age breakdown nor block count)
+    private final static Set<ContentSummaryTypes> CRAWLED_CONTENT_SUMMARY_TYPES = EnumSet.of(
+        ContentSummaryTypes.SMALL_FILES,
+        ContentSummaryTypes.NAMENODE_OBJECTS,
+        ContentSummaryTypes.NAMENODE_HEAP,
+        ContentSummaryTypes.COLD_SPACE_30_DAYS,
+        ContentSummaryTypes.COLD_SPACE_90_DAYS,
+        ContentSummaryTypes.COLD_SPACE_365_DAYS,
+        ContentSummaryTypes.NUMBER_OF_BLOCKS
+    );
+
+    // Measures needing the ages in the index, views needing the principals
+    private final static Set<ContentSummaryTypes> COLD_CONTENT_SUMMARY_TYPES = EnumSet.of(
+        ContentSummaryTypes.COLD_SPACE_30_DAYS,
+        ContentSummaryTypes.COLD_SPACE_90_DAYS,
+        ContentSummaryTypes.COLD_SPACE_365_DAYS
+    );
+    private final static Set<UsageViews> PRINCIPAL_VIEWS = EnumSet.of(UsageViews.OWNER, UsageViews.GROUP);
+
     public static void main(String[] args) throws IOException
     {
         SweeperConfig sweeperConfig = new ConfigurationObjectFactory(System.getProperties()).build(SweeperConfig.class);
         Configuration hadoopConfig = configureHDFSAccess(sweeperConfig);
 
         log.info("Sweeper configured");
-        drawBrowser(hadoopConfig, sweeperConfig);
+
+        if (sweeperConfig.getMetricsLogSeconds() > 0) {
+            Metrics.startLogging(sweeperConfig.getMetricsLogSeconds());
+        }
+
+        switch (SweeperModes.valueOf(sweeperConfig.getMode())) {
+            case BROWSE:
+                drawBrowser(hadoopConfig, sweeperConfig);
+                break;
+            case REPORT:
+                // No Swing in this path, so that it runs with -Djava.awt.headless=true
+                writeReport(hadoopConfig, sweeperConfig);
+                break;
+            case SERVER:
+                runServer(hadoopConfig, sweeperConfig);
+                break;
+        }
     }
 
     private static Configuration configureHDFSAccess(SweeperConfig config)
@@ -50,22 +109,464 @@ public class Sweeper
         return conf;
     }
 
-    private static void drawBrowser(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+    private static void drawBrowser(final Configuration hadoopConfig, final SweeperConfig sweeperConfig)
         throws IOException
     {
-        FileSystem fs = FileSystem.get(hadoopConfig);
         JFrame frame = new JFrame("Sweeper");
 
-        HdfsItem items = new HdfsItem(fs, sweeperConfig.getPath(), ContentSummaryTypes.valueOf(sweeperConfig.getContentSummary()));
-        SweeperColumns columns = new SweeperColumns(items);
+        final ContentSummaryTypes contentSummaryType = ContentSummaryTypes.valueOf(sweeperConfig.getContentSummary());
+        final AtomicReference<UsageViews> view = new AtomicReference<UsageViews>(UsageViews.valueOf(sweeperConfig.getView()));
+        final AtomicReference<Namespace> current = new AtomicReference<Namespace>();
+        final AtomicReference<DuplicateFinder> duplicates = new AtomicReference<DuplicateFinder>();
+        Callable<Item> reload = null;
+        Item items;
+
+        if (!sweeperConfig.getServerUrl().isEmpty()) {
+            reload = new Callable<Item>()
+            {
+                @Override
+                public Item call() throws IOException
+                {
+                    return openRemote(sweeperConfig, contentSummaryType);
+                }
+            };
+            items = openRemote(sweeperConfig, contentSummaryType);
+        }
+        else {
+            Namespace namespace = loadNamespace(hadoopConfig, sweeperConfig);
+
+            if (namespace == null) {
+                items = rollUp(new HdfsItem(getFileSystem(hadoopConfig, sweeperConfig), sweeperConfig.getPath(), contentSummaryType, new ItemCache(sweeperConfig.getCacheMaxWeight())), sweeperConfig);
+            }
+            else {
+                current.set(namespace);
+                reload = new Callable<Item>()
+                {
+                    @Override
+                    public Item call() throws IOException
+                    {
+                        current.set(refreshNamespace(current.get(), hadoopConfig, sweeperConfig));
+
+                        return toItem(current.get(), hadoopConfig, sweeperConfig, view.get(), duplicates);
+                    }
+                };
+                items = toItem(namespace, hadoopConfig, sweeperConfig, view.get(), duplicates);
+            }
+        }
+
+        FetchScheduler scheduler = new FetchScheduler(sweeperConfig.getFetchThreads());
+        Prefetcher prefetcher = null;
+
+        if (sweeperConfig.getPrefetchTop() > 0) {
+            prefetcher = new Prefetcher(scheduler, sweeperConfig.getPrefetchTop(), sweeperConfig.getPrefetchMaxRpcPerSecond());
+        }
+
+        final SweeperColumns columns = new SweeperColumns(items, scheduler, prefetcher);
 
         columns.setBackground(Color.RED);
 
+        // Sorts all columns by another measure, without querying the namenode again. JComboBox is
+        // only generic since Java 7, and this builds on Java 6
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        final JComboBox measures = new JComboBox(ContentSummaryTypes.values());
+
+        measures.setSelectedItem(contentSummaryType);
+        measures.setFocusable(false);
+        measures.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                columns.setContentSummaryType((ContentSummaryTypes) measures.getSelectedItem());
+            }
+        });
+
+        JPanel controls = new JPanel(new BorderLayout());
+
+        controls.add(measures, BorderLayout.CENTER);
+
+        if (current.get() != null && sweeperConfig.getSnapshotBaseline().isEmpty()) {
+            // Breaks the browsed path down by owner or group, shows its duplicates, and back
+            List<UsageViews> choices = new ArrayList<UsageViews>(Arrays.asList(UsageViews.values()));
+
+            if (!current.get().hasPrincipals()) {
+                // Until set, see sweeper.index.principals
+                choices.removeAll(PRINCIPAL_VIEWS);
+            }
+
+            // Raw like the measures
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            final JComboBox views = new JComboBox(choices.toArray());
+
+            views.setSelectedItem(view.get());
+            views.setFocusable(false);
+            views.addActionListener(new ActionListener()
+            {
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    view.set((UsageViews) views.getSelectedItem());
+
+                    try {
+                        columns.setRoot(toItem(current.get(), hadoopConfig, sweeperConfig, view.get(), duplicates));
+                    }
+                    catch (IOException ex) {
+                        log.warn(String.format("Failed to switch to the %s view (%s)", view.get(), ex));
+                    }
+                }
+            });
+            controls.add(views, BorderLayout.WEST);
+        }
+
+        JPanel content = new JPanel(new BorderLayout());
+
+        content.add(controls, BorderLayout.NORTH);
+        content.add(columns, BorderLayout.CENTER);
+
         frame.setLayout(new BorderLayout());
         frame.setSize(600, 400);
         frame.setLocation(10, 10);
-        frame.setContentPane(columns);
+        frame.setContentPane(content);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+        if (reload != null) {
+            bindRefresh(frame, columns, reload);
+        }
+
         frame.setVisible(true);
     }
+
+    /**
+     * F5 reloads the items in the background (refreshing the namespace, or browsing the server's
+     * latest one), then browses them again from the root
+     */
+    private static void bindRefresh(JFrame frame, final SweeperColumns columns, final Callable<Item> reload)
+    {
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        frame.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "refresh");
+        frame.getRootPane().getActionMap().put("refresh", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                if (!refreshing.compareAndSet(false, true)) {
+                    return;
+                }
+
+                Thread refresher = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            final Item items = reload.call();
+
+                            SwingUtilities.invokeLater(new Runnable()
+                            {
+                                @Override
+                                public void run()
+                                {
+                                    columns.setRoot(items);
+                                }
+                            });
+                        }
+                        catch (Exception e) {
+                            log.warn(String.format("Failed to refresh (%s)", e));
+                        }
+                        finally {
+                            refreshing.set(false);
+                        }
+                    }
+                }, "sweeper-refresh");
+
+                refresher.setDaemon(true);
+                refresher.start();
+            }
+        });
+    }
+
+    private static Item openRemote(SweeperConfig sweeperConfig, ContentSummaryTypes contentSummaryType)
+        throws IOException
+    {
+        RemoteItem root = RemoteItem.open(sweeperConfig.getServerUrl(), contentSummaryType);
+
+        return rollUp(findItem(root, root.getRootPath(), sweeperConfig.getPath()), sweeperConfig);
+    }
+
+    /**
+     * Collapse the siblings matching sweeper.rollup, if any
+     */
+    private static Item rollUp(Item item, SweeperConfig sweeperConfig)
+    {
+        List<RollupRule> rules = RollupRule.parse(sweeperConfig.getRollup());
+
+        return rules.isEmpty() ? item : new RollupItem(item, rules);
+    }
+
+    private static void runServer(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        Namespace namespace = loadNamespace(hadoopConfig, sweeperConfig);
+
+        if (namespace == null) {
+            // Nothing to share when every client queries the namenode
+            namespace = newCrawler(hadoopConfig, sweeperConfig).crawl(sweeperConfig.getPath());
+        }
+
+        SweeperServer server = new SweeperServer(namespace, sweeperConfig.getServerHost(), sweeperConfig.getServerPort(), sweeperConfig.getServerThreads());
+
+        server.start();
+
+        long refreshMillis = TimeUnit.MINUTES.toMillis(sweeperConfig.getServerRefreshMinutes());
+
+        while (refreshMillis > 0) {
+            try {
+                Thread.sleep(refreshMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                namespace = refreshNamespace(namespace, hadoopConfig, sweeperConfig);
+                server.setNamespace(namespace);
+            }
+            catch (IOException e) {
+                log.warn(String.format("Failed to refresh [%s] (%s)", namespace.getRootPath(), e));
+            }
+        }
+    }
+
+    private static void writeReport(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        String output = sweeperConfig.getReportOutput();
+        OutputStream stream = output.isEmpty() || output.equals("-") ? System.out : new FileOutputStream(output);
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+
+        try {
+            Report report = new Report(
+                out,
+                ReportFormats.valueOf(sweeperConfig.getReportFormat()),
+                sweeperConfig.getReportTop(),
+                sweeperConfig.getReportDepth()
+            );
+
+            Usage usage = sweeperConfig.isReportUsage() ? new Usage() : null;
+
+            new Crawler(getFileSystem(hadoopConfig, sweeperConfig), sweeperConfig.getCrawlThreads()).crawl(sweeperConfig.getPath(), report, usage);
+            report.finish(usage);
+        }
+        finally {
+            if (stream == System.out) {
+                out.flush();
+            }
+            else {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return the crawled, loaded or snapshotted namespace, or null to browse the live cluster
+     */
+    private static Namespace loadNamespace(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        ContentSummaryTypes contentSummaryType = ContentSummaryTypes.valueOf(sweeperConfig.getContentSummary());
+        File snapshot = sweeperConfig.getSnapshot().isEmpty() ? null : new File(sweeperConfig.getSnapshot());
+        boolean compare = !sweeperConfig.getSnapshotBaseline().isEmpty();
+
+        if (snapshot != null && snapshot.exists()) {
+            log.info(String.format("Opening snapshot [%s]", snapshot));
+
+            Namespace namespace = NamespaceSnapshot.open(snapshot);
+
+            if (sweeperConfig.isSnapshotRefresh()) {
+                namespace = refreshNamespace(namespace, hadoopConfig, sweeperConfig);
+            }
+
+            return namespace;
+        }
+
+        NamespaceIndex index;
+
+        if (!sweeperConfig.getOivDump().isEmpty()) {
+            char delimiter = sweeperConfig.getOivDelimiter().equals("\\t") ? '\t' : sweeperConfig.getOivDelimiter().charAt(0);
+
+            index = new OivDumpLoader(delimiter, isIndexAges(sweeperConfig), isIndexPrincipals(sweeperConfig)).load(sweeperConfig.getOivDump());
+        }
+        else if (sweeperConfig.isCrawl() || snapshot != null || compare || CRAWLED_CONTENT_SUMMARY_TYPES.contains(contentSummaryType)
+            || UsageViews.valueOf(sweeperConfig.getView()) != UsageViews.PATH) {
+            index = newCrawler(hadoopConfig, sweeperConfig).crawl(sweeperConfig.getPath());
+        }
+        else {
+            return null;
+        }
+
+        if (snapshot != null) {
+            NamespaceSnapshot.write(index, snapshot);
+        }
+
+        return index;
+    }
+
+    /**
+     * Building an index, with only the ages and principals needed
+     */
+    private static Crawler newCrawler(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        return new Crawler(getFileSystem(hadoopConfig, sweeperConfig), sweeperConfig.getCrawlThreads(),
+            isIndexAges(sweeperConfig), isIndexPrincipals(sweeperConfig));
+    }
+
+    /**
+     * Also when sizing by cold space from the start
+     */
+    private static boolean isIndexAges(SweeperConfig sweeperConfig)
+    {
+        return sweeperConfig.isIndexAges() || COLD_CONTENT_SUMMARY_TYPES.contains(ContentSummaryTypes.valueOf(sweeperConfig.getContentSummary()));
+    }
+
+    /**
+     * Also when breaking down by owner or group from the start
+     */
+    private static boolean isIndexPrincipals(SweeperConfig sweeperConfig)
+    {
+        return sweeperConfig.isIndexPrincipals() || PRINCIPAL_VIEWS.contains(UsageViews.valueOf(sweeperConfig.getView()));
+    }
+
+    /**
+     * Crawl again the directories modified since the namespace was crawled, and save the result
+     * to the snapshot if any
+     */
+    private static Namespace refreshNamespace(Namespace namespace, Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        NamespaceIndex index = newCrawler(hadoopConfig, sweeperConfig).refresh(namespace);
+
+        if (!sweeperConfig.getSnapshot().isEmpty()) {
+            NamespaceSnapshot.write(index, new File(sweeperConfig.getSnapshot()));
+        }
+
+        return index;
+    }
+
+    /**
+     * @param duplicates the finder of the DUPLICATES view, kept while the namespace and path don't change.
+     *                   Only started here: it finds its candidates in the background.
+     */
+    private static Item toItem(Namespace namespace, Configuration hadoopConfig, SweeperConfig sweeperConfig, UsageViews view, AtomicReference<DuplicateFinder> duplicates)
+        throws IOException
+    {
+        ContentSummaryTypes contentSummaryType = ContentSummaryTypes.valueOf(sweeperConfig.getContentSummary());
+        File baseline = sweeperConfig.getSnapshotBaseline().isEmpty() ? null : new File(sweeperConfig.getSnapshotBaseline());
+
+        if (baseline != null) {
+            log.info(String.format("Comparing with snapshot [%s]", baseline));
+
+            Namespace before = NamespaceSnapshot.open(baseline);
+
+            if (!before.getRootPath().equals(namespace.getRootPath())) {
+                throw new IllegalArgumentException(String.format("Can't compare [%s] with [%s]", before.getRootPath(), namespace.getRootPath()));
+            }
+
+            if (view != UsageViews.PATH) {
+                throw new IllegalArgumentException(String.format("Can't break a comparison down by %s", view));
+            }
+
+            return rollUp(findItem(new DiffItem(before, Namespace.ROOT, namespace, Namespace.ROOT, contentSummaryType), namespace.getRootPath(), sweeperConfig.getPath()), sweeperConfig);
+        }
+
+        Item item = findItem(new NamespaceItem(namespace, Namespace.ROOT, contentSummaryType), namespace.getRootPath(), sweeperConfig.getPath());
+        int node = ((NamespaceItem) item).getNode();
+        DuplicateFinder finder = duplicates.get();
+
+        if (finder != null && (finder.getNamespace() != namespace || finder.getRoot() != node)) {
+            finder.cancel();
+            duplicates.set(null);
+        }
+        else if (finder != null && view != UsageViews.DUPLICATES) {
+            // Kept, so that coming back to the view resumes the search
+            finder.cancel();
+        }
+
+        if (PRINCIPAL_VIEWS.contains(view) && !namespace.hasPrincipals()) {
+            throw new IllegalArgumentException(String.format("Owners and groups were not recorded, set sweeper.index.principals to break down by %s", view));
+        }
+
+        switch (view) {
+            case OWNER:
+                return rollUp(new PrincipalsItem(namespace, node, false, contentSummaryType), sweeperConfig);
+            case GROUP:
+                return rollUp(new PrincipalsItem(namespace, node, true, contentSummaryType), sweeperConfig);
+            case DUPLICATES:
+                if (duplicates.get() == null) {
+                    File checkpoint = sweeperConfig.getDuplicatesCheckpoint().isEmpty() ? null : new File(sweeperConfig.getDuplicatesCheckpoint());
+
+                    duplicates.set(new DuplicateFinder(getFileSystem(hadoopConfig, sweeperConfig), namespace, node, sweeperConfig.getDuplicatesThreads(), checkpoint));
+                }
+
+                duplicates.get().start();
+
+                return rollUp(new DuplicatesItem(duplicates.get(), node, contentSummaryType), sweeperConfig);
+            default:
+                return rollUp(item, sweeperConfig);
+        }
+    }
+
+    /**
+     * Browsing, crawls, refreshes and duplicate searches all share this one, so that a single
+     * limiter bounds the load of the whole process on the namenode.
+     */
+    private static synchronized FileSystem getFileSystem(Configuration hadoopConfig, SweeperConfig sweeperConfig)
+        throws IOException
+    {
+        if (fileSystem == null) {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(
+                sweeperConfig.getThrottleMaxConcurrency(),
+                sweeperConfig.getThrottleMaxRpcPerSecond(),
+                sweeperConfig.getThrottleLatencyTolerance()
+            );
+
+            fileSystem = new ThrottledFileSystem(FileSystem.get(hadoopConfig), limiter);
+        }
+
+        return fileSystem;
+    }
+
+    private static Item findItem(Item root, String rootPath, String path)
+    {
+        if (!(path + "/").startsWith(rootPath.endsWith("/") ? rootPath : rootPath + "/")) {
+            throw new IllegalArgumentException(String.format("[%s] is not under [%s]", path, rootPath));
+        }
+
+        Item item = root;
+
+        for (String component : path.substring(rootPath.length()).split("/")) {
+            if (component.isEmpty()) {
+                continue;
+            }
+
+            Item child = null;
+
+            for (Item candidate : item.getChildren()) {
+                if (candidate.getName().equals("/" + component)) {
+                    child = candidate;
+                    break;
+                }
+            }
+
+            if (child == null) {
+                throw new IllegalArgumentException(String.format("No directory [%s] under [%s]", path, rootPath));
+            }
+
+            item = child;
+        }
+
+        return item;
+    }
 }
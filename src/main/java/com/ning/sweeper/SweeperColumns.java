@@ -17,11 +17,16 @@
 package com.ning.sweeper;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.ning.sweeper.config.ContentSummaryTypes;
 import org.apache.log4j.Logger;
 
 import javax.swing.*;
-import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.InputEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
@@ -35,24 +40,37 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SweeperColumns extends JComponent
 {
     private static final Logger log = Logger.getLogger(SweeperColumns.class.getName());
 
-    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(5);
-
+    private final FetchScheduler scheduler;
+    private final Prefetcher prefetcher;
     private final List<Column> columns = new ArrayList<Column>();
     private final JLabel renderer = new JLabel("<item>");
     private final Font plainFont = renderer.getFont();
     private final Font italicFont = new Font(plainFont.getName(), Font.ITALIC, plainFont.getSize());
+    // Replaced by the paint Graphics' ones, see updateMetrics(). Only accessed on the EDT
+    private FontMetrics plainMetrics = renderer.getFontMetrics(plainFont);
+    private FontMetrics italicMetrics = renderer.getFontMetrics(italicFont);
+    private int metricsVersion = 0;
     private final ColumnComponent columnComponent = new ColumnComponent();
     private final JScrollBar horizontalScrollBar = new JScrollBar(Adjustable.HORIZONTAL);
 
     private final int itemHeight;
+    private final int itemBaseline;
+
+    // Row under the mouse, only accessed on the EDT
+    private Item hoveredItem = null;
+    // Null to size items by the measure they were created with
+    private volatile ContentSummaryTypes contentSummaryType = null;
 
     private class ColumnComponent extends JComponent
     {
@@ -88,43 +106,56 @@ public class SweeperColumns extends JComponent
         }
     }
 
-    private class ColumnItem implements Item
+    // Package-private for the benchmarks, like the other members they drive
+    class ColumnItem implements Item
     {
         private final Item item;
-        private final Future<?> future;
-        private volatile long totalSize = -1;
+        private final String name;
+        // Listing order in the column, to tell apart rows of the same size and name
+        private final int position;
+        volatile long totalSize = UNKNOWN_SIZE;
+        private volatile boolean fetched = false;
         private volatile boolean selected = false;
         private volatile boolean updating = false;
 
+        // Values the item is currently sorted and painted with, only accessed on the EDT
+        private long sortedSize = UNKNOWN_SIZE;
+        private boolean sortedUpdating = false;
+        private String sizeText = "";
+        private Color sizeColor = Color.BLACK;
+        private int sizeWidth = 0;
+        private int sizeMetricsVersion = -1;
+        private String nameText = null;
+        private int nameTextWidth = -1;
+
         public ColumnItem(final Column parent, final Item item)
         {
             this.item = item;
-            this.future = EXECUTOR.submit(new Runnable()
+            this.name = item.getName();
+            this.position = parent.positions.getAndIncrement();
+            parent.group.submit(item, new FetchScheduler.Listener()
             {
                 @Override
-                public void run()
+                public void started()
                 {
                     updating = true;
+                    parent.changed(ColumnItem.this);
+                }
 
-                    try {
-                        totalSize = item.getTotalSize();
-                    }
-                    catch (Exception e) {
-                        log.warn(String.format("Failed to fetch [%s] (%s)", item, e.getCause()));
-                        totalSize = -1;
-                    }
-                    finally {
-                        updating = false;
-                    }
-
-                    parent.updateItems();
+                @Override
+                public void fetched(long size)
+                {
+                    fetched = true;
+                    updateSize();
+                    updating = false;
+                    parent.changed(ColumnItem.this);
                 }
             });
         }
 
         public String getName()
         {
-            return item.getName();
+            return name;
         }
 
         public long getTotalSize()
@@ -132,20 +163,79 @@ public class SweeperColumns extends JComponent
             return totalSize;
         }
 
+        public long getTotalSize(ContentSummaryTypes contentSummaryType)
+        {
+            return item.getTotalSize(contentSummaryType);
+        }
+
+        /**
+         * Called once fetched, and when the measure changes: whichever comes last sees both
+         */
+        private synchronized void updateSize()
+        {
+            if (fetched) {
+                ContentSummaryTypes type = contentSummaryType;
+
+                // Already fetched: no RPC
+                totalSize = type == null ? item.getTotalSize() : item.getTotalSize(type);
+            }
+        }
+
         public ImmutableList<Item> getChildren()
         {
             return item.getChildren();
         }
 
-        public void cancel()
+        private void sortedBy(long size, boolean updating)
+        {
+            boolean changed = size != sortedSize || nameText == null || updating != sortedUpdating;
+
+            sortedSize = size;
+            sortedUpdating = updating;
+
+            if (changed) {
+                sizeToLabel(size, this);
+                measure();
+            }
+        }
+
+        private void measure()
         {
-            future.cancel(true);
+            sizeWidth = (sortedUpdating ? italicMetrics : plainMetrics).stringWidth(sizeText);
+            sizeMetricsVersion = metricsVersion;
+            nameTextWidth = -1;
+        }
+
+        /**
+         * @return the name, shortened with an ellipsis if wider than the given width
+         */
+        private String getNameText(int width)
+        {
+            if (width != nameTextWidth) {
+                FontMetrics metrics = sortedUpdating ? italicMetrics : plainMetrics;
+
+                nameText = name;
+
+                if (metrics.stringWidth(name) > width) {
+                    int length = name.length();
+
+                    while (length > 0 && metrics.stringWidth(name.substring(0, length)) + metrics.stringWidth(ELLIPSIS) > width) {
+                        length--;
+                    }
+
+                    nameText = name.substring(0, length) + ELLIPSIS;
+                }
+
+                nameTextWidth = width;
+            }
+
+            return nameText;
         }
     }
 
-    private class Column extends JComponent
+    class Column extends JComponent
     {
-        private final JScrollBar verticalScrollBar = new JScrollBar(Adjustable.VERTICAL)
+        final JScrollBar verticalScrollBar = new JScrollBar(Adjustable.VERTICAL)
         {
             @Override
             public void repaint()
@@ -153,23 +243,100 @@ public class SweeperColumns extends JComponent
                 Column.this.repaint();
             }
         };
-        private final List<ColumnItem> items;
-        private volatile List<ColumnItem> sortedItems;
+        private final FetchScheduler.Group group = scheduler.newGroup();
+        private final AtomicInteger positions = new AtomicInteger();
+        private final Queue<ColumnItem> addedItems = new ConcurrentLinkedQueue<ColumnItem>();
+        private final Queue<ColumnItem> changedItems = new ConcurrentLinkedQueue<ColumnItem>();
+        private volatile Future<?> lister = null;
+        // Listed by this column, its cache entries are kept until it is closed. Only accessed on the EDT
+        private CachedItem pinned = null;
+        private volatile boolean listing = false;
+        // Only accessed on the EDT
+        final List<ColumnItem> sortedItems = new ArrayList<ColumnItem>();
+        private int sortedVersion = 0;
+        private long lastScrollMillis = 0;
+        private int prioritizedVersion = -1;
+        private int prioritizedOffset = -1;
+        private int prioritizedCount = -1;
+        // Rows on screen, refilled at every frame they change
+        private final List<Item> visibleItems = new ArrayList<Item>();
 
         private volatile int width = 150;
         private volatile ColumnItem selectedItem = null;
 
-        public Column(final List<Item> items)
+        Column(List<Item> items)
         {
-            ImmutableList.Builder<ColumnItem> itemBuilder = ImmutableList.builder();
+            this();
 
             for (Item item : items) {
-                itemBuilder.add(new ColumnItem(this, item));
+                addedItems.add(new ColumnItem(this, item));
+            }
+
+            updateItems();
+        }
+
+        /**
+         * Column listing the children of parent in the background, rows are added as they come
+         */
+        public Column(final Item parent)
+        {
+            this();
+
+            if (parent instanceof CachedItem) {
+                pinned = (CachedItem) parent;
+                pinned.pin();
             }
 
-            sortedItems = this.items = itemBuilder.build();
+            listing = true;
+            lister = LISTER.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        Iterator<List<Item>> batches = listChildren(parent);
+
+                        while (!Thread.currentThread().isInterrupted() && batches.hasNext()) {
+                            for (Item item : batches.next()) {
+                                addedItems.add(new ColumnItem(Column.this, item));
+                            }
+                        }
+                    }
+                    catch (RuntimeException e) {
+                        log.warn(String.format("Failed to list [%s] (%s)", parent, e.getCause()));
+                    }
+                    finally {
+                        listing = false;
+                        SwingUtilities.invokeLater(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                removeIfEmpty(Column.this);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        private Column()
+        {
             verticalScrollBar.setUnitIncrement(4);
-            verticalScrollBar.setMaximum(items.size() * itemHeight);
+            verticalScrollBar.addAdjustmentListener(new AdjustmentListener()
+            {
+                private int lastValue = 0;
+
+                @Override
+                public void adjustmentValueChanged(AdjustmentEvent e)
+                {
+                    // Also fired when the rows are updated and the maximum changes
+                    if (e.getValue() != lastValue) {
+                        lastValue = e.getValue();
+                        lastScrollMillis = System.currentTimeMillis();
+                    }
+                }
+            });
             addMouseListener(new MouseListener()
             {
                 @Override
@@ -179,7 +346,7 @@ public class SweeperColumns extends JComponent
                         int y = e.getY() + verticalScrollBar.getValue();
                         int selectedIndex = y / itemHeight;
 
-                        if (selectedIndex < 0 || selectedIndex >= items.size()) {
+                        if (selectedIndex < 0 || selectedIndex >= sortedItems.size()) {
                             addAfter(Column.this, null);
                         }
                         else {
@@ -192,7 +359,7 @@ public class SweeperColumns extends JComponent
 
                                 selectedItem = item;
                                 item.selected = true;
-                                addAfter(Column.this, item.getChildren());
+                                addAfter(Column.this, item.item);
                             }
                         }
 
@@ -235,7 +402,11 @@ public class SweeperColumns extends JComponent
                 @Override
                 public void mouseMoved(MouseEvent e)
                 {
-                    tryScrollBar(e);
+                    if (!tryScrollBar(e)) {
+                        int index = (e.getY() + verticalScrollBar.getValue()) / itemHeight;
+
+                        hoveredItem = index < sortedItems.size() ? sortedItems.get(index).item : null;
+                    }
                 }
             });
         }
@@ -254,98 +425,259 @@ public class SweeperColumns extends JComponent
 
         public void paintComponent(Graphics g)
         {
+            long start = System.nanoTime();
+
             g = g.create();
+            updateMetrics((Graphics2D) g);
 
             int height = getHeight();
             int scrollWidth = verticalScrollBar.getPreferredSize().width;
-            Rectangle bounds = new Rectangle(0, 0, width - scrollWidth, itemHeight);
+            int rowWidth = width - scrollWidth;
 
             g.setColor(Color.WHITE);
             g.fillRect(0, 0, width, height);
-            g.setColor(Color.BLACK);
 
-            g.translate(width - scrollWidth, 0);
+            g.translate(rowWidth, 0);
             verticalScrollBar.setVisibleAmount(height);
             verticalScrollBar.setBounds(0, 0, scrollWidth, height);
             verticalScrollBar.paint(g);
-            g.translate(scrollWidth - width, 0);
+            g.translate(-rowWidth, 0);
 
             int verticalOffset = verticalScrollBar.getValue();
             int startOffset = verticalOffset / itemHeight;
             int heightLeft = height + itemHeight;
+            int y = -(verticalOffset % itemHeight);
 
-            g.translate(0, -(verticalOffset % itemHeight));
+            g.clipRect(0, 0, rowWidth, height);
 
             List<ColumnItem> items = sortedItems;
 
+            prioritizeVisible(startOffset, Math.min(items.size(), startOffset + heightLeft / itemHeight + 1));
+
+            // Labels are formatted and measured when sizes change, not here
             for (int i = startOffset; i < items.size() && heightLeft > 0; ++i) {
                 ColumnItem item = items.get(i);
 
-                renderer.setFont(item.updating ? italicFont : plainFont);
-                renderer.setBackground(item.selected ? Color.LIGHT_GRAY : Color.WHITE);
+                if (item.sizeMetricsVersion != metricsVersion) {
+                    item.measure();
+                }
 
-                sizeToLabel(item.getTotalSize(), renderer);
-                renderer.setBounds(bounds);
-                renderer.setHorizontalAlignment(SwingConstants.RIGHT);
-                renderer.paint(g);
+                if (item.selected) {
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.fillRect(0, y, rowWidth, itemHeight);
+                }
 
-                int sizeWidth = renderer.getPreferredSize().width;
+                g.setFont(item.sortedUpdating ? italicFont : plainFont);
+                g.setColor(item.sizeColor);
+                g.drawString(item.sizeText, rowWidth - ITEM_INSET - item.sizeWidth, y + itemBaseline);
 
-                renderer.setForeground(Color.BLACK);
-                renderer.setHorizontalAlignment(SwingConstants.LEFT);
-                renderer.setSize(bounds.width - sizeWidth, itemHeight);
-                renderer.setText(item.getName());
-                renderer.paint(g);
+                g.setColor(Color.BLACK);
+                g.drawString(item.getNameText(rowWidth - item.sizeWidth - 4 * ITEM_INSET), ITEM_INSET, y + itemBaseline);
 
-                g.translate(0, itemHeight);
+                y += itemHeight;
                 heightLeft -= itemHeight;
             }
 
+            if (listing && heightLeft > 0) {
+                g.setFont(italicFont);
+                g.setColor(Color.GRAY);
+                g.drawString(LISTING, ITEM_INSET, y + itemBaseline);
+            }
+
             g.dispose();
+            paintLatency.record(System.nanoTime() - start);
         }
 
-        private synchronized void updateItems()
+        /**
+         * Measure the labels as they are drawn: the renderer's rendering context can differ from
+         * the paint Graphics' one (HiDPI scaling, antialiasing hints), which would misplace the
+         * right-aligned sizes
+         */
+        private void updateMetrics(Graphics2D g)
         {
-            List<ColumnItem> sortedItems = new ArrayList<ColumnItem>(items);
+            if (!g.getFontRenderContext().equals(plainMetrics.getFontRenderContext())) {
+                plainMetrics = g.getFontMetrics(plainFont);
+                italicMetrics = g.getFontMetrics(italicFont);
+                metricsVersion++;
+            }
+        }
 
-            Collections.sort(sortedItems, new Comparator<ColumnItem>()
-            {
-                @Override
-                public int compare(ColumnItem lhs, ColumnItem rhs)
-                {
-                    int result = Long.signum(rhs.getTotalSize() - lhs.getTotalSize());
+        /**
+         * Fetch the rows on screen first
+         */
+        private void prioritizeVisible(int start, int end)
+        {
+            if (sortedVersion == prioritizedVersion && start == prioritizedOffset && end - start == prioritizedCount) {
+                return;
+            }
 
-                    if (result == 0) {
-                        result = (lhs.updating ? 0 : 1) - (rhs.updating ? 0 : 1);
-                    }
+            visibleItems.clear();
+
+            for (int i = start; i < end; ++i) {
+                visibleItems.add(sortedItems.get(i).item);
+            }
+
+            // Copied by the scheduler
+            group.prioritize(visibleItems);
+            prioritizedVersion = sortedVersion;
+            prioritizedOffset = start;
+            prioritizedCount = end - start;
+        }
+
+        // Called from the fetch threads: changes are applied in batches by updateItems()
+        void changed(ColumnItem item)
+        {
+            changedItems.add(item);
+        }
+
+        /**
+         * Add the newly listed items and move the items whose size changed since the last call to
+         * their new position. Called on the EDT, at most once per frame.
+         * <p/>
+         * Each move is a binary search and an array copy of the rows in between, i.e. O(N) but a
+         * single memmove, and past N/8 changes a sort is cheaper. An order statistic tree would move
+         * rows in O(log N), but cost an object per row and slow down the painting, which reads rows
+         * by index at every frame.
+         */
+        void updateItems()
+        {
+            if ((addedItems.isEmpty() && changedItems.isEmpty()) || System.currentTimeMillis() - lastScrollMillis < SCROLL_SETTLE_MILLIS) {
+                // Keep the order stable while the user is scrolling
+                return;
+            }
+
+            long start = System.nanoTime();
+
+            List<ColumnItem> batch = new ArrayList<ColumnItem>();
+            ColumnItem changed;
+
+            while ((changed = addedItems.poll()) != null) {
+                // Its size may already be known, the fetch is submitted before the item is queued
+                changed.sortedBy(changed.totalSize, changed.updating);
+                batch.add(changed);
+            }
+
+            if (!batch.isEmpty()) {
+                Collections.sort(batch, ORDER);
+                merge(sortedItems, batch);
+                batch.clear();
+            }
+
+            while ((changed = changedItems.poll()) != null) {
+                batch.add(changed);
+            }
+
+            if (batch.size() > sortedItems.size() / 8) {
+                for (ColumnItem item : batch) {
+                    item.sortedBy(item.totalSize, item.updating);
+                }
 
-                    if (result == 0) {
-                        result = lhs.getName().compareTo(rhs.getName());
+                Collections.sort(sortedItems, ORDER);
+            }
+            else {
+                for (ColumnItem item : batch) {
+                    int index = Collections.binarySearch(sortedItems, item, ORDER);
+
+                    if (index < 0) {
+                        // Not added yet: it will be sorted by its current size then
+                        continue;
                     }
 
-                    return result;
+                    sortedItems.remove(index);
+                    item.sortedBy(item.totalSize, item.updating);
+                    sortedItems.add(-Collections.binarySearch(sortedItems, item, ORDER) - 1, item);
                 }
-            });
+            }
 
-            this.sortedItems = sortedItems;
+            sortedVersion++;
+            verticalScrollBar.setMaximum(sortedItems.size() * itemHeight);
             repaint();
+            updateLatency.record(System.nanoTime() - start);
         }
 
-        private void cancel()
+        /**
+         * Size all items by the current measure, and sort them again
+         */
+        private void resize()
         {
-            for (ColumnItem item : items) {
-                item.cancel();
+            for (ColumnItem item : sortedItems) {
+                item.updateSize();
+                changedItems.add(item);
+            }
+
+            // Sorted by their size once added
+            for (ColumnItem item : addedItems) {
+                item.updateSize();
             }
         }
+
+        void cancel()
+        {
+            if (lister != null) {
+                lister.cancel(true);
+            }
+
+            if (pinned != null) {
+                pinned.unpin();
+                pinned = null;
+            }
+
+            group.cancel();
+        }
     }
 
-    public SweeperColumns(Item items)
+    private static final int FRAME_MILLIS = 50;
+    private static final int ITEM_INSET = 2;
+    private static final String ELLIPSIS = "...";
+    private static final String LISTING = "Listing...";
+    private static final int LISTING_BATCH_SIZE = 1000;
+
+    private static final ExecutorService LISTER = Executors.newCachedThreadPool();
+    private static final int SCROLL_SETTLE_MILLIS = 300;
+
+    private static final Metrics.Latency paintLatency = Metrics.latency("ui.paint");
+    private static final Metrics.Latency updateLatency = Metrics.latency("ui.updateItems");
+
+    private static final Comparator<ColumnItem> ORDER = new Comparator<ColumnItem>()
+    {
+        @Override
+        public int compare(ColumnItem lhs, ColumnItem rhs)
+        {
+            int result = lhs.sortedSize == rhs.sortedSize ? 0 : (lhs.sortedSize < rhs.sortedSize ? 1 : -1);
+
+            if (result == 0) {
+                result = (lhs.sortedUpdating ? 0 : 1) - (rhs.sortedUpdating ? 0 : 1);
+            }
+
+            if (result == 0) {
+                result = lhs.getName().compareTo(rhs.getName());
+            }
+
+            if (result == 0) {
+                // Rows are found by binary search: no two may compare equal
+                result = lhs.position - rhs.position;
+            }
+
+            return result;
+        }
+    };
+
+    public SweeperColumns(Item items, FetchScheduler scheduler)
+    {
+        this(items, scheduler, null);
+    }
+
+    /**
+     * @param prefetcher null not to prefetch
+     */
+    public SweeperColumns(Item items, FetchScheduler scheduler, Prefetcher prefetcher)
     {
         super();
 
+        this.scheduler = scheduler;
+        this.prefetcher = prefetcher;
         this.itemHeight = renderer.getPreferredSize().height;
-        renderer.setOpaque(true);
-        renderer.setBorder(new EmptyBorder(0, 2, 0, 2));
+        this.itemBaseline = (itemHeight - plainMetrics.getHeight()) / 2 + plainMetrics.getAscent();
         addMouseWheelListener(new MouseWheelListener()
         {
             @Override
@@ -376,15 +708,85 @@ public class SweeperColumns extends JComponent
             }
         });
 
-        Column root = new Column(Arrays.asList(items));
-
-        this.columns.add(root);
         horizontalScrollBar.setUnitIncrement(4);
         horizontalScrollBar.setBounds(0, 100, 100, 100);
-        columnComponent.add(root);
+        setRoot(items);
         setLayout(new BorderLayout());
         add(columnComponent, BorderLayout.CENTER);
         add(horizontalScrollBar, BorderLayout.SOUTH);
+
+        new Timer(FRAME_MILLIS, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                for (Column column : columns) {
+                    column.updateItems();
+                }
+
+                prefetch();
+            }
+        }).start();
+    }
+
+    /**
+     * Size and sort every open column by another measure, from the totals already fetched.
+     * Called on the EDT.
+     */
+    public void setContentSummaryType(ContentSummaryTypes contentSummaryType)
+    {
+        this.contentSummaryType = contentSummaryType;
+
+        for (Column column : columns) {
+            column.resize();
+        }
+    }
+
+    /**
+     * Close all columns and browse from this item instead. Called on the EDT.
+     */
+    public void setRoot(Item item)
+    {
+        for (Column column : columns) {
+            column.cancel();
+            columnComponent.remove(column);
+        }
+
+        Column root = new Column(Arrays.asList(item));
+
+        columns.clear();
+        columns.add(root);
+        columnComponent.add(root);
+        hoveredItem = null;
+        updateBounds();
+    }
+
+    /**
+     * The next click is most likely on the hovered row, or on one of the largest rows of the
+     * newest column
+     */
+    private void prefetch()
+    {
+        if (prefetcher == null) {
+            return;
+        }
+
+        List<ColumnItem> sortedItems = columns.get(columns.size() - 1).sortedItems;
+        List<Item> items = new ArrayList<Item>(prefetcher.getTop() + 1);
+
+        if (hoveredItem != null) {
+            items.add(hoveredItem);
+        }
+
+        for (int i = 0; i < Math.min(prefetcher.getTop(), sortedItems.size()); ++i) {
+            ColumnItem item = sortedItems.get(i);
+
+            if (!item.selected && !items.contains(item.item)) {
+                items.add(item.item);
+            }
+        }
+
+        prefetcher.prefetch(items);
     }
 
     private Column getColumnAt(Point point)
@@ -402,7 +804,7 @@ public class SweeperColumns extends JComponent
         return null;
     }
 
-    private void addAfter(Column parent, List<Item> items)
+    private void addAfter(Column parent, Item item)
     {
         Iterator<Column> iterator = columns.iterator();
 
@@ -422,14 +824,30 @@ public class SweeperColumns extends JComponent
             columnComponent.remove(column);
         }
 
-        if (items != null && !items.isEmpty()) {
-            List<Item> children = new ArrayList<Item>(items);
-            Column child = new Column(children);
+        if (item != null) {
+            Column child = new Column(item);
 
             columns.add(child);
             columnComponent.add(child);
         }
 
+        updateBounds();
+    }
+
+    /**
+     * Files and empty directories don't get a column
+     */
+    private void removeIfEmpty(Column column)
+    {
+        if (column.sortedItems.isEmpty() && column.addedItems.isEmpty() && columns.remove(column)) {
+            column.cancel();
+            columnComponent.remove(column);
+            updateBounds();
+        }
+    }
+
+    private void updateBounds()
+    {
         columnComponent.updateBounds();
 
         int scrollMax = horizontalScrollBar.getMaximum();
@@ -440,26 +858,71 @@ public class SweeperColumns extends JComponent
         }
     }
 
+    /**
+     * Merge the sorted additions into the sorted items, in place and in linear time
+     */
+    private static void merge(List<ColumnItem> items, List<ColumnItem> additions)
+    {
+        int i = items.size() - 1;
+        int j = additions.size() - 1;
+        int k = items.size() + additions.size() - 1;
+
+        for (int n = 0; n < additions.size(); ++n) {
+            items.add(null);
+        }
+
+        while (j >= 0) {
+            if (i >= 0 && ORDER.compare(items.get(i), additions.get(j)) > 0) {
+                items.set(k--, items.get(i--));
+            }
+            else {
+                items.set(k--, additions.get(j--));
+            }
+        }
+    }
+
+    private static Iterator<List<Item>> listChildren(Item item)
+    {
+        if (item instanceof PagedItem) {
+            return ((PagedItem) item).listChildren(LISTING_BATCH_SIZE);
+        }
+
+        return Iterators.partition(item.getChildren().iterator(), LISTING_BATCH_SIZE);
+    }
+
     private static final String[] SIZES = {"KB", "MB", "GB", "TB", "PB"};
     private static final Color[] COLORS = {Color.BLACK, Color.GREEN.darker(), Color.BLUE.darker(), Color.ORANGE.darker(), Color.RED.darker(), Color.PINK.darker()};
 
-    private static void sizeToLabel(double size, JLabel label)
+    // Only used on the EDT
+    private static final DecimalFormat INTEGER_FORMAT = new DecimalFormat();
+    private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat();
+
+    static {
+        INTEGER_FORMAT.setMaximumFractionDigits(0);
+        DECIMAL_FORMAT.setMaximumFractionDigits(1);
+    }
+
+    static void sizeToLabel(double size, ColumnItem item)
     {
-        if (size == -1) {
-            label.setText("");
-            label.setForeground(Color.BLACK);
+        if (size == Item.UNKNOWN_SIZE) {
+            item.sizeText = "";
+            item.sizeColor = Color.BLACK;
 
             return;
         }
 
-        DecimalFormat format = new DecimalFormat();
+        String sign = "";
+
+        if (size < 0) {
+            sign = "-";
+            size = -size;
+        }
+
         String text;
         int i = -1;
 
-        format.setMaximumFractionDigits(0);
-
         if (size <= 1023) {
-            text = format.format(size);
+            text = INTEGER_FORMAT.format(size);
         }
         else {
             while (size > 1023 && i < SIZES.length - 1) {
@@ -467,14 +930,10 @@ public class SweeperColumns extends JComponent
                 i += 1;
             }
 
-            if (size < 10) {
-                format.setMaximumFractionDigits(1);
-            }
-
-            text = format.format(size) + " " + SIZES[i];
+            text = (size < 10 ? DECIMAL_FORMAT : INTEGER_FORMAT).format(size) + " " + SIZES[i];
         }
 
-        label.setText(text);
-        label.setForeground(COLORS[i + 1]);
+        item.sizeText = sign + text;
+        item.sizeColor = COLORS[i + 1];
     }
 }
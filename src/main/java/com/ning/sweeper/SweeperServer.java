@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ContentSummaryTypes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link Namespace} over HTTP, so that many {@link RemoteItem} browsers share a single
+ * crawl instead of each querying the namenode.
+ * <ul>
+ * <li>GET /root: the root node, followed by the root path, the names of the sizes and the
+ * generation</li>
+ * <li>GET /children?generation=G&node=N&after=A&limit=L: up to L children of N, starting after its
+ * child A (omitted for the first page)</li>
+ * </ul>
+ * Nodes are written one per line: id, d or f, comma separated sizes (one per
+ * {@link ContentSummaryTypes}, so that clients can switch without asking again), URL-encoded name,
+ * tab separated.
+ * <p/>
+ * Node ids are only valid for one generation of the namespace: once it is replaced, requests for
+ * the previous generation get 410 Gone. A page never changes within a generation, so clients
+ * can keep it without revalidating.
+ * <p/>
+ * The namespace is served without authentication: listen on the loopback interface unless every
+ * host that can connect may see it.
+ * <p/>
+ * Connections are multiplexed by the JDK HTTP server on a single selector thread, requests are
+ * handled by a fixed pool.
+ */
+public class SweeperServer
+{
+    private static final Logger log = Logger.getLogger(SweeperServer.class.getName());
+
+    private static final Metrics.Latency requestLatency = Metrics.latency("server.request");
+    private static final Metrics.Counter gone = Metrics.counter("server.gone");
+    private static final Metrics.Counter failures = Metrics.counter("server.failures");
+
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile Generation current;
+
+    private static class Generation
+    {
+        private final Namespace namespace;
+        private final long id;
+
+        private Generation(Namespace namespace, long id)
+        {
+            this.namespace = namespace;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param host address to listen on, e.g. 127.0.0.1 for local clients only or 0.0.0.0 for all
+     * @param port 0 for any free port
+     */
+    public SweeperServer(Namespace namespace, String host, int port, int threads) throws IOException
+    {
+        this.current = new Generation(namespace, System.currentTimeMillis());
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                return new Thread(runnable, "sweeper-server-" + count.getAndIncrement());
+            }
+        });
+
+        server.setExecutor(executor);
+        server.createContext("/root", new Handler()
+        {
+            @Override
+            protected void handle(Generation generation, Map<String, String> parameters, StringBuilder body)
+            {
+                appendNode(body, generation.namespace, Namespace.ROOT);
+                body.append(encode(generation.namespace.getRootPath())).append('\n');
+
+                for (ContentSummaryTypes type : ContentSummaryTypes.values()) {
+                    body.append(type.ordinal() == 0 ? "" : ",").append(type);
+                }
+
+                body.append('\n').append(generation.id).append('\n');
+            }
+        });
+        server.createContext("/children", new Handler()
+        {
+            @Override
+            protected void handle(Generation generation, Map<String, String> parameters, StringBuilder body)
+            {
+                Namespace namespace = generation.namespace;
+                int node = getInt(parameters, "node", Namespace.NONE);
+                int after = getInt(parameters, "after", Namespace.NONE);
+                int limit = Math.min(MAX_PAGE_SIZE, getInt(parameters, "limit", MAX_PAGE_SIZE));
+
+                if (node < 0 || node >= namespace.size() || (after != Namespace.NONE && (after >= namespace.size() || namespace.getParent(after) != node))) {
+                    throw new IllegalArgumentException(String.format("Invalid node %d or child %d", node, after));
+                }
+
+                int child = after == Namespace.NONE ? namespace.getFirstChild(node) : namespace.getNextSibling(after);
+
+                for (int i = 0; i < limit && child != Namespace.NONE; ++i) {
+                    appendNode(body, namespace, child);
+                    child = namespace.getNextSibling(child);
+                }
+            }
+        });
+    }
+
+    public void start()
+    {
+        server.start();
+        log.info(String.format("Serving [%s] on %s", current.namespace.getRootPath(), server.getAddress()));
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Serve a new version of the namespace, e.g. once refreshed. Clients browsing the previous
+     * one get 410 Gone and have to start again from the root.
+     */
+    public void setNamespace(Namespace namespace)
+    {
+        current = new Generation(namespace, Math.max(System.currentTimeMillis(), current.id + 1));
+    }
+
+    private abstract class Handler implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            long start = System.nanoTime();
+
+            try {
+                Generation generation = current;
+                int status;
+                byte[] bytes = null;
+
+                try {
+                    Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+                    String requested = parameters.get("generation");
+
+                    if (!exchange.getRequestMethod().equals("GET")) {
+                        status = HttpURLConnection.HTTP_BAD_METHOD;
+                    }
+                    else if (requested != null && !requested.equals(String.valueOf(generation.id))) {
+                        gone.increment();
+                        status = HttpURLConnection.HTTP_GONE;
+                    }
+                    else {
+                        StringBuilder body = new StringBuilder();
+
+                        handle(generation, parameters, body);
+                        bytes = body.toString().getBytes("UTF-8");
+                        status = HttpURLConnection.HTTP_OK;
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    failures.increment();
+                    status = HttpURLConnection.HTTP_BAD_REQUEST;
+                }
+                catch (RuntimeException e) {
+                    failures.increment();
+                    log.warn(String.format("Failed to answer [%s]", exchange.getRequestURI()), e);
+                    status = HttpURLConnection.HTTP_INTERNAL_ERROR;
+                }
+
+                if (bytes == null) {
+                    exchange.sendResponseHeaders(status, -1);
+                }
+                else {
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                    exchange.sendResponseHeaders(status, bytes.length);
+
+                    OutputStream out = exchange.getResponseBody();
+
+                    out.write(bytes);
+                    out.close();
+                }
+            }
+            catch (IOException e) {
+                failures.increment();
+                log.debug(String.format("Failed to answer [%s] (%s)", exchange.getRequestURI(), e));
+            }
+            finally {
+                exchange.close();
+                requestLatency.record(System.nanoTime() - start);
+            }
+        }
+
+        protected abstract void handle(Generation generation, Map<String, String> parameters, StringBuilder body);
+    }
+
+    private static void appendNode(StringBuilder body, Namespace namespace, int node)
+    {
+        body.append(node).append('\t').append(namespace.isDirectory(node) ? 'd' : 'f').append('\t');
+
+        for (ContentSummaryTypes type : ContentSummaryTypes.values()) {
+            body.append(type.ordinal() == 0 ? "" : ",").append(NamespaceItem.getTotalSize(namespace, node, type));
+        }
+
+        body.append('\t').append(encode(namespace.getName(node))).append('\n');
+    }
+
+    private static int getInt(Map<String, String> parameters, String name, int defaultValue)
+    {
+        String value = parameters.get(name);
+
+        // NumberFormatException is an IllegalArgumentException: answered with 400
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static Map<String, String> getParameters(String query) throws UnsupportedEncodingException
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+
+                if (equals > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    static String encode(String value)
+    {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
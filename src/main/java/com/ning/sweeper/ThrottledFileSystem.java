@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * FileSystem whose namenode calls go through an {@link AdaptiveLimiter}. getFileStatus and
+ * listStatus latencies tell the limiter about the namenode load; getContentSummary and
+ * getFileChecksum take as long as their subtree or file is large, so only their failures do.
+ */
+public class ThrottledFileSystem extends FilterFileSystem
+{
+    private static final Metrics.Latency throttled = Metrics.latency("rpc.throttled");
+    private static final Metrics.Latency getFileStatusLatency = Metrics.latency("rpc.getFileStatus");
+    private static final Metrics.Latency listStatusLatency = Metrics.latency("rpc.listStatus");
+    private static final Metrics.Latency getContentSummaryLatency = Metrics.latency("rpc.getContentSummary");
+    private static final Metrics.Latency getFileChecksumLatency = Metrics.latency("rpc.getFileChecksum");
+    private static final Metrics.Counter failures = Metrics.counter("rpc.failures");
+
+    private final AdaptiveLimiter limiter;
+
+    public ThrottledFileSystem(FileSystem fs, AdaptiveLimiter limiter)
+    {
+        super(fs);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public FileStatus getFileStatus(final Path path) throws IOException
+    {
+        return throttle(getFileStatusLatency, "getFileStatus", new Call<FileStatus>()
+        {
+            @Override
+            public FileStatus call() throws IOException
+            {
+                return fs.getFileStatus(path);
+            }
+        });
+    }
+
+    @Override
+    public FileStatus[] listStatus(final Path path) throws IOException
+    {
+        return throttle(listStatusLatency, "listStatus", new Call<FileStatus[]>()
+        {
+            @Override
+            public FileStatus[] call() throws IOException
+            {
+                return fs.listStatus(path);
+            }
+        });
+    }
+
+    @Override
+    public ContentSummary getContentSummary(final Path path) throws IOException
+    {
+        return throttle(getContentSummaryLatency, null, new Call<ContentSummary>()
+        {
+            @Override
+            public ContentSummary call() throws IOException
+            {
+                return fs.getContentSummary(path);
+            }
+        });
+    }
+
+    /**
+     * Asks the datanodes of every block: the most expensive call, throttled like the others
+     */
+    @Override
+    public FileChecksum getFileChecksum(final Path path) throws IOException
+    {
+        return throttle(getFileChecksumLatency, null, new Call<FileChecksum>()
+        {
+            @Override
+            public FileChecksum call() throws IOException
+            {
+                return fs.getFileChecksum(path);
+            }
+        });
+    }
+
+    /**
+     * @param method name of the call for the limiter, null if its latency doesn't reflect the load
+     */
+    private <T> T throttle(Metrics.Latency latency, String method, Call<T> call) throws IOException
+    {
+        long queued = System.nanoTime();
+        long ticket = limiter.acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+        boolean interrupted = false;
+
+        throttled.record(start - queued);
+
+        try {
+            T result = call.call();
+
+            failed = false;
+
+            return result;
+        }
+        catch (InterruptedIOException e) {
+            interrupted = true;
+
+            throw e;
+        }
+        finally {
+            long duration = System.nanoTime() - start;
+
+            latency.record(duration);
+
+            if (failed && (interrupted || Thread.currentThread().isInterrupted())) {
+                // Cancelled by the caller (e.g. FetchScheduler), not a namenode failure
+                limiter.abandon();
+            }
+            else {
+                limiter.release(ticket, method, duration, failed);
+
+                if (failed) {
+                    failures.increment();
+                }
+            }
+        }
+    }
+
+    private interface Call<T>
+    {
+        T call() throws IOException;
+    }
+}
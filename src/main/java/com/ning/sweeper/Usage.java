@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Space, files and blocks charged to every owner and group, updated by the crawling threads as
+ * they list directories.
+ * <p/>
+ * Owners and groups are mapped to int ids once, then their counters are longs in pages of
+ * {@link AtomicLongArray} indexed by id: threads add to them without taking any lock. A listing
+ * is summed per run of files with the same owner (usually all of them) before being added, so
+ * threads rarely contend on the same counters.
+ */
+public class Usage
+{
+    public static final int SPACE_CONSUMED = 0;
+    public static final int LENGTH = 1;
+    public static final int FILE_COUNT = 2;
+    public static final int BLOCK_COUNT = 3;
+
+    static final int FIELDS = 4;
+
+    private final Counters owners = new Counters();
+    private final Counters groups = new Counters();
+
+    /**
+     * Directories are skipped: they consume no space.
+     */
+    public void addFiles(FileStatus[] statuses)
+    {
+        add(owners, statuses, true);
+        add(groups, statuses, false);
+    }
+
+    public void addFile(FileStatus status)
+    {
+        addFiles(new FileStatus[]{status});
+    }
+
+    private static void add(Counters counters, FileStatus[] statuses, boolean byOwner)
+    {
+        String principal = null;
+        long[] totals = new long[FIELDS];
+
+        for (FileStatus status : statuses) {
+            if (status == null || status.isDir()) {
+                continue;
+            }
+
+            String next = byOwner ? status.getOwner() : status.getGroup();
+
+            if (totals[FILE_COUNT] > 0 && !equal(next, principal)) {
+                counters.add(counters.getId(principal), totals);
+                totals = new long[FIELDS];
+            }
+
+            principal = next;
+            totals[SPACE_CONSUMED] += status.getLen() * status.getReplication();
+            totals[LENGTH] += status.getLen();
+            totals[FILE_COUNT]++;
+            totals[BLOCK_COUNT] += NamenodeCost.getBlockCount(status.getLen(), status.getBlockSize());
+        }
+
+        if (totals[FILE_COUNT] > 0) {
+            counters.add(counters.getId(principal), totals);
+        }
+    }
+
+    private static boolean equal(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public Counters getOwners()
+    {
+        return owners;
+    }
+
+    public Counters getGroups()
+    {
+        return groups;
+    }
+
+    public static class Counters
+    {
+        private static final int PAGE_SHIFT = 8;
+        private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+        private static final int MAX_PAGES = 4096;
+
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+        private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<AtomicLongArray>(MAX_PAGES);
+        // Guarded by this, as is the creation of ids
+        private final List<String> names = new ArrayList<String>();
+
+        /**
+         * @param name null if unknown, counted as the empty name
+         */
+        public int getId(String name)
+        {
+            String key = name == null ? "" : name;
+            Integer id = ids.get(key);
+
+            if (id != null) {
+                return id;
+            }
+
+            synchronized (this) {
+                id = ids.get(key);
+
+                if (id == null) {
+                    id = names.size();
+
+                    if (id == MAX_PAGES * PAGE_SIZE) {
+                        throw new IllegalStateException(String.format("More than %d owners or groups", id));
+                    }
+
+                    if ((id & (PAGE_SIZE - 1)) == 0) {
+                        pages.set(id >> PAGE_SHIFT, new AtomicLongArray(PAGE_SIZE * FIELDS));
+                    }
+
+                    names.add(key);
+                    // Published last, so that a thread seeing the id also sees its page
+                    ids.put(key, id);
+                }
+
+                return id;
+            }
+        }
+
+        private void add(int id, long[] totals)
+        {
+            AtomicLongArray page = pages.get(id >> PAGE_SHIFT);
+            int offset = (id & (PAGE_SIZE - 1)) * FIELDS;
+
+            for (int field = 0; field < FIELDS; ++field) {
+                page.addAndGet(offset + field, totals[field]);
+            }
+        }
+
+        public synchronized int size()
+        {
+            return names.size();
+        }
+
+        public synchronized String getName(int id)
+        {
+            return names.get(id);
+        }
+
+        /**
+         * @param field one of {@link Usage#SPACE_CONSUMED}, {@link Usage#LENGTH},
+         *              {@link Usage#FILE_COUNT} or {@link Usage#BLOCK_COUNT}
+         */
+        public long get(int id, int field)
+        {
+            return pages.get(id >> PAGE_SHIFT).get((id & (PAGE_SIZE - 1)) * FIELDS + field);
+        }
+    }
+}
@@ -19,5 +19,17 @@ package com.ning.sweeper.config;
 public enum ContentSummaryTypes
 {
     SPACE_USED,
-    NUMBER_OF_FILES,;
+    NUMBER_OF_FILES,
+    SMALL_FILES,
+    AVERAGE_FILE_SIZE,
+    NAMENODE_OBJECTS,
+    NAMENODE_HEAP,
+    LENGTH,
+    NUMBER_OF_DIRECTORIES,
+    QUOTA,
+    SPACE_QUOTA,
+    COLD_SPACE_30_DAYS,
+    COLD_SPACE_90_DAYS,
+    COLD_SPACE_365_DAYS,
+    NUMBER_OF_BLOCKS,;
 }
@@ -38,10 +38,224 @@ public class SweeperConfig
         return "/";
     }
 
+    @Config(value = "sweeper.mode")
+    public String getMode()
+    {
+        return "BROWSE";
+    }
+
     @Config(value = "sweeper.content_summary")
     public String getContentSummary()
     {
         // config-magic doesn't support enums :(
         return "SPACE_USED";
     }
-}
\ No newline at end of file
+
+    @Config(value = "sweeper.view")
+    public String getView()
+    {
+        // PATH, OWNER or GROUP to break the path down by principal, or DUPLICATES for the space held
+        // by duplicate files (all but PATH require a crawl, dump or snapshot)
+        return "PATH";
+    }
+
+    @Config(value = "sweeper.duplicates.threads")
+    public int getDuplicatesThreads()
+    {
+        // Checksums fetched concurrently in the DUPLICATES view
+        return 2;
+    }
+
+    @Config(value = "sweeper.duplicates.checkpoint")
+    public String getDuplicatesCheckpoint()
+    {
+        // File keeping fetched checksums across runs, empty for none
+        return "";
+    }
+
+    @Config(value = "sweeper.rollup")
+    public String getRollup()
+    {
+        // Patterns collapsing siblings, e.g. dt=(\d{4}-\d{2})-\d{2} -> dt=$1 (see RollupRule), empty for none
+        return "";
+    }
+
+    @Config(value = "sweeper.crawl")
+    public boolean isCrawl()
+    {
+        return false;
+    }
+
+    @Config(value = "sweeper.crawl.threads")
+    public int getCrawlThreads()
+    {
+        return 5;
+    }
+
+    @Config(value = "sweeper.index.ages")
+    public boolean isIndexAges()
+    {
+        // Record when files were last touched, for the cold space measures (4 bytes per file)
+        return false;
+    }
+
+    @Config(value = "sweeper.index.principals")
+    public boolean isIndexPrincipals()
+    {
+        // Record owners and groups, for the owner and group views (8 bytes per node)
+        return false;
+    }
+
+    @Config(value = "sweeper.oiv.dump")
+    public String getOivDump()
+    {
+        // Empty to query the namenode
+        return "";
+    }
+
+    @Config(value = "sweeper.oiv.delimiter")
+    public String getOivDelimiter()
+    {
+        return "\t";
+    }
+
+    @Config(value = "sweeper.snapshot")
+    public String getSnapshot()
+    {
+        // Empty not to save nor load snapshots
+        return "";
+    }
+
+    @Config(value = "sweeper.snapshot.refresh")
+    public boolean isSnapshotRefresh()
+    {
+        // Refresh an existing snapshot before opening it, only listing the modified directories
+        return false;
+    }
+
+    @Config(value = "sweeper.snapshot.baseline")
+    public String getSnapshotBaseline()
+    {
+        // Snapshot to compare with, empty to show absolute totals
+        return "";
+    }
+
+    @Config(value = "sweeper.fetch.threads")
+    public int getFetchThreads()
+    {
+        return 5;
+    }
+
+    @Config(value = "sweeper.cache.max_weight")
+    public long getCacheMaxWeight()
+    {
+        // One per cached size or listed child, a few hundred bytes each
+        return 1000000;
+    }
+
+    @Config(value = "sweeper.prefetch.top")
+    public int getPrefetchTop()
+    {
+        // Largest rows of the newest column to prefetch besides the hovered one, 0 not to prefetch
+        return 0;
+    }
+
+    @Config(value = "sweeper.prefetch.max_rpc_per_second")
+    public int getPrefetchMaxRpcPerSecond()
+    {
+        return 10;
+    }
+
+    @Config(value = "sweeper.server.url")
+    public String getServerUrl()
+    {
+        // Empty not to browse a Sweeper server
+        return "";
+    }
+
+    @Config(value = "sweeper.server.host")
+    public String getServerHost()
+    {
+        // Loopback only: anyone who can connect browses the whole namespace, without authentication.
+        // 0.0.0.0 for every interface
+        return "127.0.0.1";
+    }
+
+    @Config(value = "sweeper.server.port")
+    public int getServerPort()
+    {
+        return 8080;
+    }
+
+    @Config(value = "sweeper.server.threads")
+    public int getServerThreads()
+    {
+        return 16;
+    }
+
+    @Config(value = "sweeper.server.refresh_minutes")
+    public int getServerRefreshMinutes()
+    {
+        // 0 never to refresh the namespace served
+        return 0;
+    }
+
+    @Config(value = "sweeper.throttle.max_concurrency")
+    public int getThrottleMaxConcurrency()
+    {
+        return 5;
+    }
+
+    @Config(value = "sweeper.throttle.max_rpc_per_second")
+    public int getThrottleMaxRpcPerSecond()
+    {
+        // 0 for no cap
+        return 0;
+    }
+
+    @Config(value = "sweeper.throttle.latency_tolerance")
+    public double getThrottleLatencyTolerance()
+    {
+        return 3.0;
+    }
+
+    @Config(value = "sweeper.report.format")
+    public String getReportFormat()
+    {
+        return "CSV";
+    }
+
+    @Config(value = "sweeper.report.output")
+    public String getReportOutput()
+    {
+        // Empty for stdout
+        return "";
+    }
+
+    @Config(value = "sweeper.report.top")
+    public int getReportTop()
+    {
+        return 20;
+    }
+
+    @Config(value = "sweeper.report.depth")
+    public int getReportDepth()
+    {
+        // Directories up to this depth are reported as soon as they are crawled
+        return 1;
+    }
+
+    @Config(value = "sweeper.report.usage")
+    public boolean isReportUsage()
+    {
+        // Also report the usage of every owner and group
+        return false;
+    }
+
+    @Config(value = "sweeper.metrics.log_seconds")
+    public int getMetricsLogSeconds()
+    {
+        // 0 not to log metrics, they are always available over JMX
+        return 0;
+    }
+}
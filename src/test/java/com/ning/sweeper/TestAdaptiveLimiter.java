@@ -0,0 +1,236 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAdaptiveLimiter
+{
+    private static final Path PATH = new Path(System.getProperty("java.io.tmpdir"));
+
+    /**
+     * Local FileSystem whose getFileStatus takes the given time per call in flight, like a
+     * saturated namenode, and getContentSummary as long as asked.
+     */
+    private static class SlowFileSystem extends FilterFileSystem
+    {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final long millisPerCall;
+
+        private volatile long contentSummaryMillis = 1;
+        private volatile IOException failure = null;
+
+        private SlowFileSystem(long millisPerCall) throws IOException
+        {
+            super(FileSystem.getLocal(new Configuration()));
+            this.millisPerCall = millisPerCall;
+        }
+
+        @Override
+        public FileStatus getFileStatus(Path path) throws IOException
+        {
+            int calls = inFlight.incrementAndGet();
+
+            try {
+                int max;
+
+                while (calls > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, calls)) {
+                    // Retry
+                }
+
+                sleep(millisPerCall * calls);
+
+                if (failure != null) {
+                    throw failure;
+                }
+
+                return super.getFileStatus(path);
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public ContentSummary getContentSummary(Path path) throws IOException
+        {
+            sleep(contentSummaryMillis);
+
+            return new ContentSummary(0, 0, 0);
+        }
+
+        private static void sleep(long millis) throws InterruptedIOException
+        {
+            try {
+                Thread.sleep(millis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    @Test
+    public void testGrowsWhileLatencyIsFlat() throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 0, 2);
+        FileSystem fs = new ThrottledFileSystem(new SlowFileSystem(2), limiter);
+
+        for (int i = 0; i < 100; ++i) {
+            fs.getFileStatus(PATH);
+        }
+
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testBacksOffWhenLatencyGrowsWithLoad() throws Exception
+    {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(32, 0, 2);
+        SlowFileSystem slow = new SlowFileSystem(2);
+        final FileSystem fs = new ThrottledFileSystem(slow, limiter);
+
+        run(16, 20, new Call()
+        {
+            @Override
+            public void call() throws IOException
+            {
+                fs.getFileStatus(PATH);
+            }
+        });
+
+        // 16 threads would all be in flight without the limiter
+        Assert.assertTrue("max in flight " + slow.maxInFlight.get(), slow.maxInFlight.get() < 8);
+    }
+
+    @Test
+    public void testSlowContentSummariesAreNotOverload() throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 0, 2);
+        SlowFileSystem slow = new SlowFileSystem(2);
+        FileSystem fs = new ThrottledFileSystem(slow, limiter);
+
+        for (int i = 0; i < 20; ++i) {
+            // A large subtree takes longer, whatever the load
+            slow.contentSummaryMillis = i % 2 == 0 ? 1 : 30;
+            fs.getContentSummary(PATH);
+            fs.getFileStatus(PATH);
+        }
+
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailuresHalveTheLimit() throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 0, 2);
+        SlowFileSystem slow = new SlowFileSystem(2);
+        FileSystem fs = new ThrottledFileSystem(slow, limiter);
+
+        for (int i = 0; i < 100; ++i) {
+            fs.getFileStatus(PATH);
+        }
+
+        slow.failure = new IOException("namenode is down");
+
+        try {
+            fs.getFileStatus(PATH);
+            Assert.fail();
+        }
+        catch (IOException e) {
+            Assert.assertEquals(4, limiter.getLimit());
+        }
+    }
+
+    @Test
+    public void testCancelledCallsAreNotFailures() throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 0, 2);
+        SlowFileSystem slow = new SlowFileSystem(2);
+        FileSystem fs = new ThrottledFileSystem(slow, limiter);
+
+        for (int i = 0; i < 100; ++i) {
+            fs.getFileStatus(PATH);
+        }
+
+        slow.failure = new InterruptedIOException();
+
+        try {
+            fs.getFileStatus(PATH);
+            Assert.fail();
+        }
+        catch (InterruptedIOException e) {
+            Assert.assertEquals(8, limiter.getLimit());
+            Assert.assertEquals(0, limiter.getInFlight());
+        }
+    }
+
+    private interface Call
+    {
+        void call() throws IOException;
+    }
+
+    private static void run(int threads, final int callsPerThread, final Call call) throws InterruptedException
+    {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for (int i = 0; i < threads; ++i) {
+            Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < callsPerThread; ++i) {
+                            call.call();
+                        }
+                    }
+                    catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertEquals(new ArrayList<Throwable>(), errors);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class TestCrawler
+{
+    private static final int[] THREADS = {1, 4, 16};
+
+    private FileSystem fs;
+    private File root;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        fs = FileSystem.getLocal(new Configuration());
+        root = File.createTempFile("sweeper", ".crawl");
+        root.delete();
+        root.mkdir();
+
+        // Wide and deep enough for every thread count to split the work, with empty directories
+        Random random = new Random(42);
+
+        for (int i = 0; i < 6; ++i) {
+            File directory = new File(root, "d" + i);
+
+            directory.mkdir();
+            new File(directory, "empty").mkdir();
+
+            for (int j = 0; j < 5; ++j) {
+                File subdirectory = new File(directory, "s" + j);
+
+                subdirectory.mkdir();
+
+                for (int k = 0; k < random.nextInt(8); ++k) {
+                    write(new File(subdirectory, "f" + k), random.nextInt(5000));
+                }
+            }
+
+            write(new File(directory, "top"), i * 100);
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(root);
+    }
+
+    @Test
+    public void testCrawl() throws Exception
+    {
+        for (int threads : THREADS) {
+            NamespaceIndex index = new Crawler(fs, threads).crawl(root.getPath());
+
+            Assert.assertEquals(1 + 6 * (1 + 1 + 5), index.getDirectories());
+            assertSameAsContentSummary(index, Namespace.ROOT, new Path(root.getPath()));
+        }
+    }
+
+    @Test
+    public void testRefresh() throws Exception
+    {
+        NamespaceIndex previous = new Crawler(fs, 4).crawl(root.getPath());
+        File changed = new File(root, "d2/s3");
+        long modificationTime = changed.lastModified();
+
+        write(new File(changed, "new"), 1234);
+        new File(root, "d4/s0/f0").delete();
+        // Make sure the changes are seen even if within the resolution of the clock
+        changed.setLastModified(modificationTime + 10000);
+        new File(root, "d4/s0").setLastModified(modificationTime + 10000);
+
+        for (int threads : THREADS) {
+            assertSameAsContentSummary(new Crawler(fs, threads).refresh(previous), Namespace.ROOT, new Path(root.getPath()));
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception
+    {
+        for (int threads : THREADS) {
+            final Map<String, Summary> summaries = new HashMap<String, Summary>();
+
+            Summary summary = new Crawler(fs, threads).crawl(root.getPath(), new Crawler.Listener()
+            {
+                @Override
+                public void directoryCrawled(Path path, int depth, Summary summary)
+                {
+                    synchronized (summaries) {
+                        Assert.assertNull(summaries.put(path.toUri().getPath(), summary));
+                    }
+                }
+            });
+
+            synchronized (summaries) {
+                Assert.assertEquals(1 + 6 * (1 + 1 + 5), summaries.size());
+                Assert.assertSame(summary, summaries.get(new Path(root.getPath()).toUri().getPath()));
+
+                for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+                    ContentSummary expected = fs.getContentSummary(new Path(entry.getKey()));
+
+                    Assert.assertEquals(entry.getKey(), expected.getLength(), entry.getValue().getLength());
+                    Assert.assertEquals(entry.getKey(), expected.getFileCount(), entry.getValue().getFileCount());
+                    Assert.assertEquals(entry.getKey(), expected.getDirectoryCount(), entry.getValue().getDirectoryCount() + 1);
+                }
+            }
+        }
+    }
+
+    private void assertSameAsContentSummary(Namespace namespace, int node, Path path) throws IOException
+    {
+        ContentSummary expected = fs.getContentSummary(path);
+
+        Assert.assertEquals(path.toString(), expected.getLength(), namespace.getLength(node));
+        Assert.assertEquals(path.toString(), expected.getSpaceConsumed(), namespace.getSpaceConsumed(node));
+        Assert.assertEquals(path.toString(), expected.getFileCount(), namespace.getFileCount(node));
+        Assert.assertEquals(path.toString(), expected.getDirectoryCount(), namespace.getDirectoryCount(node));
+
+        if (namespace.isDirectory(node)) {
+            Assert.assertEquals(path.toString(), fs.listStatus(path).length, count(namespace, node));
+
+            for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+                assertSameAsContentSummary(namespace, child, new Path(path, namespace.getName(child)));
+            }
+        }
+    }
+
+    private static int count(Namespace namespace, int node)
+    {
+        int children = 0;
+
+        for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            children++;
+        }
+
+        return children;
+    }
+
+    private static void write(File file, int length) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(new byte[length]);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ContentSummaryTypes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class TestDiffItem
+{
+    @Test
+    public void testSortedChildren() throws Exception
+    {
+        NamespaceIndex before = new NamespaceIndex("/");
+        int beforeRoot = before.addDirectory(Namespace.NONE, "");
+        int logs = before.addDirectory(beforeRoot, "logs");
+        before.addFile(logs, "a", 10, (short) 1, 1);
+        before.addFile(beforeRoot, "deleted", 5, (short) 1, 1);
+        before.addFile(beforeRoot, "kept", 7, (short) 1, 1);
+        before.aggregate();
+
+        NamespaceIndex after = new NamespaceIndex("/");
+        int afterRoot = after.addDirectory(Namespace.NONE, "");
+        after.addFile(afterRoot, "created", 3, (short) 1, 1);
+        after.addFile(afterRoot, "kept", 7, (short) 1, 1);
+        int newLogs = after.addDirectory(afterRoot, "logs");
+        after.addFile(newLogs, "a", 10, (short) 1, 1);
+        after.addFile(newLogs, "b", 20, (short) 1, 1);
+        after.aggregate();
+
+        DiffItem root = new DiffItem(before, beforeRoot, after, afterRoot, ContentSummaryTypes.LENGTH);
+
+        Assert.assertEquals(3 + 20 - 5, root.getTotalSize());
+        Assert.assertEquals("[created:3, deleted:-5, kept:0, /logs:20]", root.getChildren().toString());
+        Assert.assertEquals("[a:0, b:20]", child(root, "/logs").getChildren().toString());
+    }
+
+    @Test
+    public void testUnsortedChildren() throws Exception
+    {
+        // As loaded from a dump, in no particular order
+        NamespaceIndex before = new NamespaceIndex("/");
+        int beforeRoot = before.addDirectory(Namespace.NONE, "");
+        before.addFile(beforeRoot, "e", 5, (short) 1, 1);
+        before.addFile(beforeRoot, "a", 1, (short) 1, 1);
+        before.addFile(beforeRoot, "c", 3, (short) 1, 1);
+        before.aggregate();
+
+        NamespaceIndex after = new NamespaceIndex("/");
+        int afterRoot = after.addDirectory(Namespace.NONE, "");
+        after.addFile(afterRoot, "d", 4, (short) 1, 1);
+        after.addFile(afterRoot, "c", 6, (short) 1, 1);
+        after.addFile(afterRoot, "e", 5, (short) 1, 1);
+        after.addFile(afterRoot, "b", 2, (short) 1, 1);
+        after.aggregate();
+
+        DiffItem root = new DiffItem(before, beforeRoot, after, afterRoot, ContentSummaryTypes.LENGTH);
+
+        Assert.assertEquals("[a:-1, b:2, c:3, d:4, e:0]", root.getChildren().toString());
+        // Batches pick up where the previous one stopped
+        Assert.assertEquals(root.getChildren(), list(root.listChildren(2)));
+        Assert.assertEquals(root.getChildren(), list(new DiffItem(before, beforeRoot, after, afterRoot, ContentSummaryTypes.LENGTH).listChildren(1)));
+    }
+
+    @Test
+    public void testCreatedAndDeletedDirectories() throws Exception
+    {
+        NamespaceIndex before = new NamespaceIndex("/");
+        int beforeRoot = before.addDirectory(Namespace.NONE, "");
+        before.addFile(before.addDirectory(beforeRoot, "old"), "one", 8, (short) 1, 1);
+        before.aggregate();
+
+        NamespaceIndex after = new NamespaceIndex("/");
+        int afterRoot = after.addDirectory(Namespace.NONE, "");
+        after.addFile(after.addDirectory(afterRoot, "new"), "two", 9, (short) 1, 1);
+        after.aggregate();
+
+        DiffItem root = new DiffItem(before, beforeRoot, after, afterRoot, ContentSummaryTypes.NUMBER_OF_FILES);
+
+        Assert.assertEquals(0, root.getTotalSize());
+        Assert.assertEquals("[/new:1, /old:-1]", root.getChildren().toString());
+        Assert.assertEquals("[two:1]", child(root, "/new").getChildren().toString());
+        Assert.assertEquals("[one:-1]", child(root, "/old").getChildren().toString());
+        Assert.assertEquals(-8, child(root, "/old").getTotalSize(ContentSummaryTypes.LENGTH));
+    }
+
+    private static Item child(Item item, String name)
+    {
+        for (Item child : item.getChildren()) {
+            if (child.getName().equals(name)) {
+                return child;
+            }
+        }
+
+        throw new AssertionError(String.format("No %s under %s", name, item.getName()));
+    }
+
+    private static List<Item> list(Iterator<List<Item>> batches)
+    {
+        List<Item> children = new ArrayList<Item>();
+
+        while (batches.hasNext()) {
+            children.addAll(batches.next());
+        }
+
+        return children;
+    }
+}
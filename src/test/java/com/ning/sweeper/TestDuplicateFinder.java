@@ -0,0 +1,241 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ContentSummaryTypes;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestDuplicateFinder
+{
+    private File dir;
+    private File checkpoint;
+    private CountingFileSystem fs;
+    private Namespace namespace;
+
+    /**
+     * Local FileSystem (without checksums) counting the files read
+     */
+    private static class CountingFileSystem extends FilterFileSystem
+    {
+        private final AtomicInteger opened = new AtomicInteger();
+
+        private CountingFileSystem() throws IOException
+        {
+            super(FileSystem.getLocal(new Configuration()));
+        }
+
+        @Override
+        public FSDataInputStream open(Path path) throws IOException
+        {
+            opened.incrementAndGet();
+
+            return super.open(path);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = File.createTempFile("sweeper", "duplicates");
+        dir.delete();
+        checkpoint = new File(dir.getPath() + ".checkpoint");
+
+        Random random = new Random(0);
+        byte[] big = new byte[100000];
+        byte[] small = new byte[5000];
+        byte[] other = new byte[5000];
+
+        random.nextBytes(big);
+        random.nextBytes(small);
+        random.nextBytes(other);
+
+        write("a/x/big", big);
+        write("b/big", big);
+        write("c/big", big);
+        write("a/small", small);
+        write("b/small", small);
+        write("c/other", other);
+        write("c/unique", new byte[777]);
+        write("a/empty", new byte[0]);
+        write("b/empty", new byte[0]);
+
+        fs = new CountingFileSystem();
+        namespace = new Crawler(fs, 2).crawl(dir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(dir);
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testReclaimableSpace()
+    {
+        DuplicateFinder finder = new DuplicateFinder(fs, namespace, Namespace.ROOT, 2, null);
+
+        finder.start();
+        finder.await(Namespace.ROOT);
+
+        // One copy of big and small is kept, the other two bigs and small are reclaimable
+        Assert.assertEquals(205000, finder.getReclaimable(Namespace.ROOT, DuplicateFinder.LENGTH));
+        Assert.assertEquals(3, finder.getReclaimable(Namespace.ROOT, DuplicateFinder.FILE_COUNT));
+        Assert.assertEquals(205000, finder.getReclaimable(node("a"), DuplicateFinder.LENGTH)
+            + finder.getReclaimable(node("b"), DuplicateFinder.LENGTH)
+            + finder.getReclaimable(node("c"), DuplicateFinder.LENGTH));
+
+        // Unique lengths and empty files are never read
+        Assert.assertEquals(6, fs.opened.get());
+        Assert.assertFalse(finder.isSearched(node("c", "unique")));
+        Assert.assertFalse(finder.isSearched(node("a", "empty")));
+        Assert.assertTrue(finder.isSearched(node("c", "other")));
+    }
+
+    @Test
+    public void testCancelAndResume()
+    {
+        DuplicateFinder finder = new DuplicateFinder(fs, namespace, Namespace.ROOT, 1, null);
+
+        finder.start();
+        finder.cancel();
+        // Returns what was found so far
+        finder.await(Namespace.ROOT);
+
+        finder.start();
+        finder.await(Namespace.ROOT);
+
+        Assert.assertEquals(205000, finder.getReclaimable(Namespace.ROOT, DuplicateFinder.LENGTH));
+
+        int opened = fs.opened.get();
+
+        // Nothing left to fetch
+        finder.cancel();
+        finder.start();
+        finder.await(Namespace.ROOT);
+
+        Assert.assertEquals(opened, fs.opened.get());
+        Assert.assertEquals(205000, finder.getReclaimable(Namespace.ROOT, DuplicateFinder.LENGTH));
+    }
+
+    @Test
+    public void testCheckpoint()
+    {
+        DuplicateFinder finder = new DuplicateFinder(fs, namespace, Namespace.ROOT, 2, checkpoint);
+
+        finder.start();
+        finder.await(Namespace.ROOT);
+
+        Assert.assertEquals(6, fs.opened.get());
+
+        DuplicateFinder resumed = new DuplicateFinder(fs, namespace, Namespace.ROOT, 2, checkpoint);
+
+        resumed.start();
+        resumed.await(Namespace.ROOT);
+
+        Assert.assertEquals(6, fs.opened.get());
+        Assert.assertEquals(205000, resumed.getReclaimable(Namespace.ROOT, DuplicateFinder.LENGTH));
+    }
+
+    @Test
+    public void testSubtree()
+    {
+        DuplicateFinder finder = new DuplicateFinder(fs, namespace, node("b"), 2, null);
+
+        finder.start();
+        finder.await(node("b"));
+
+        // Copies outside of the subtree don't count
+        Assert.assertEquals(0, finder.getReclaimable(node("b"), DuplicateFinder.LENGTH));
+        Assert.assertEquals(0, fs.opened.get());
+    }
+
+    @Test
+    public void testItems()
+    {
+        DuplicateFinder finder = new DuplicateFinder(fs, namespace, Namespace.ROOT, 2, null);
+
+        finder.start();
+
+        Item root = new DuplicatesItem(finder, Namespace.ROOT, ContentSummaryTypes.SPACE_USED);
+
+        // Waits for the search
+        long totalSize = root.getTotalSize();
+
+        Assert.assertEquals(finder.getReclaimable(Namespace.ROOT, DuplicateFinder.SPACE_CONSUMED), totalSize);
+        Assert.assertTrue(totalSize >= 205000);
+        Assert.assertEquals(3, root.getChildren().size());
+    }
+
+    private int node(String... names)
+    {
+        int node = Namespace.ROOT;
+
+        for (String name : names) {
+            node = namespace.getFirstChild(node);
+
+            while (!namespace.getName(node).equals(name)) {
+                node = namespace.getNextSibling(node);
+            }
+        }
+
+        return node;
+    }
+
+    private void write(String path, byte[] content) throws IOException
+    {
+        File file = new File(dir, path);
+
+        file.getParentFile().mkdirs();
+
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestItemCache
+{
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        ItemCache cache = new ItemCache(3);
+
+        cache.putSummary(new Path("/a"), new long[]{1});
+        cache.putSummary(new Path("/b"), new long[]{2});
+        cache.putSummary(new Path("/c"), new long[]{3});
+        Assert.assertNotNull(cache.getSummary(new Path("/a")));
+        cache.putSummary(new Path("/d"), new long[]{4});
+
+        Assert.assertNull(cache.getSummary(new Path("/b")));
+        Assert.assertNotNull(cache.getSummary(new Path("/a")));
+        Assert.assertNotNull(cache.getSummary(new Path("/d")));
+    }
+
+    @Test
+    public void testPinned()
+    {
+        ItemCache cache = new ItemCache(8);
+        Path parent = new Path("/parent");
+
+        // Pinned before its entries are cached, as when a column starts listing
+        cache.pin(parent);
+        cache.putSummary(parent, new long[]{1});
+        Assert.assertTrue(cache.putListing(parent, listing(3)));
+
+        for (int i = 0; i < 10; ++i) {
+            cache.putSummary(new Path("/other" + i), new long[]{i});
+        }
+
+        Assert.assertNotNull(cache.getSummary(parent));
+        Assert.assertEquals(3, cache.getListing(parent).length);
+
+        // Pinned twice, e.g. by a rollup and the item it wraps
+        cache.pin(parent);
+        cache.unpin(parent);
+        cache.putSummary(new Path("/other"), new long[]{0});
+        Assert.assertNotNull(cache.getListing(parent));
+
+        // Evicted like any other entry once unpinned
+        cache.unpin(parent);
+
+        for (int i = 0; i < 10; ++i) {
+            cache.putSummary(new Path("/later" + i), new long[]{i});
+        }
+
+        Assert.assertNull(cache.getListing(parent));
+    }
+
+    private static FileStatus[] listing(int count)
+    {
+        FileStatus[] statuses = new FileStatus[count];
+
+        for (int i = 0; i < count; ++i) {
+            statuses[i] = new FileStatus(i, false, 1, 1, 0, new Path("/parent/" + i));
+        }
+
+        return statuses;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestNamespaceIndex
+{
+    @Test
+    public void testAggregate() throws Exception
+    {
+        NamespaceIndex index = new NamespaceIndex("/");
+        Random random = new Random(42);
+        int today = FileAgeHistogram.getToday();
+        List<Integer> directories = new ArrayList<Integer>();
+
+        directories.add(index.addDirectory(Namespace.NONE, ""));
+
+        // Interleave directories and files, for children not to be contiguous
+        for (int i = 0; i < 5000; ++i) {
+            int parent = directories.get(random.nextInt(directories.size()));
+
+            if (random.nextInt(4) == 0) {
+                directories.add(index.addDirectory(parent, "d" + i));
+            }
+            else {
+                long length = random.nextInt(3) == 0 ? 0 : (1L << random.nextInt(40)) + random.nextInt(1000);
+                int file = index.addFile(parent, "f" + i, length, (short) (1 + random.nextInt(3)), random.nextInt(10));
+
+                index.setLastTouchedDay(file, random.nextInt(5) == 0 ? 0 : today - random.nextInt(1000));
+            }
+        }
+
+        index.aggregate();
+
+        Assert.assertEquals(5000 + 1, index.size());
+        Assert.assertEquals(directories.size(), index.getDirectories());
+        Assert.assertEquals(directories.size(), index.getDirectoryCount(Namespace.ROOT));
+
+        for (int directory : directories) {
+            long[] expected = sum(index, directory);
+
+            Assert.assertEquals(expected[0], index.getSpaceConsumed(directory));
+            Assert.assertEquals(expected[1], index.getLength(directory));
+            Assert.assertEquals(expected[2], index.getFileCount(directory));
+            Assert.assertEquals(expected[3], index.getDirectoryCount(directory));
+            Assert.assertEquals(expected[4], index.getBlockCount(directory));
+
+            for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+                Assert.assertEquals(expected[5 + bucket], index.getFileCount(directory, bucket));
+            }
+
+            for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+                Assert.assertEquals(expected[5 + FileSizeHistogram.BUCKETS + bucket], index.getSpaceConsumed(directory, bucket));
+            }
+        }
+    }
+
+    @Test
+    public void testAggregateWithoutAges() throws Exception
+    {
+        NamespaceIndex index = new NamespaceIndex("/");
+        int root = index.addDirectory(Namespace.NONE, "");
+        int file = index.addFile(root, "one", 10, (short) 3, 1);
+
+        index.aggregate();
+
+        Assert.assertFalse(index.hasAges());
+        Assert.assertEquals(30, index.getSpaceConsumed(root));
+        Assert.assertEquals(0, index.getSpaceConsumed(root, 0));
+        Assert.assertEquals(0, index.getSpaceConsumed(file, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterAggregate() throws Exception
+    {
+        NamespaceIndex index = new NamespaceIndex("/");
+        int root = index.addDirectory(Namespace.NONE, "");
+
+        index.aggregate();
+        index.addFile(root, "late", 1, (short) 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFileAsParent() throws Exception
+    {
+        NamespaceIndex index = new NamespaceIndex("/");
+        int file = index.addFile(index.addDirectory(Namespace.NONE, ""), "one", 1, (short) 1, 1);
+
+        index.addFile(file, "two", 1, (short) 1, 1);
+    }
+
+    /**
+     * Space consumed, length, files, directories, blocks, then the size and age histograms,
+     * summed from the files under a directory
+     */
+    private static long[] sum(Namespace namespace, int directory)
+    {
+        long[] totals = new long[5 + FileSizeHistogram.BUCKETS + FileAgeHistogram.BUCKETS];
+
+        totals[3] = 1;
+
+        for (int child = namespace.getFirstChild(directory); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            if (namespace.isDirectory(child)) {
+                long[] subtotals = sum(namespace, child);
+
+                for (int i = 0; i < totals.length; ++i) {
+                    totals[i] += subtotals[i];
+                }
+            }
+            else {
+                totals[0] += namespace.getSpaceConsumed(child);
+                totals[1] += namespace.getLength(child);
+                totals[2]++;
+                totals[4] += namespace.getBlockCount(child);
+                totals[5 + FileSizeHistogram.getBucket(namespace.getLength(child))]++;
+                totals[5 + FileSizeHistogram.BUCKETS + FileAgeHistogram.getBucket(namespace.getLastTouchedDay(child), FileAgeHistogram.getToday())] += namespace.getSpaceConsumed(child);
+            }
+        }
+
+        return totals;
+    }
+}
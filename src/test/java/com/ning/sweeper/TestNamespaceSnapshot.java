@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TestNamespaceSnapshot
+{
+    private File snapshot;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        snapshot = File.createTempFile("sweeper", ".snapshot");
+    }
+
+    @After
+    public void tearDown()
+    {
+        snapshot.delete();
+    }
+
+    @Test
+    public void testWithAgesAndPrincipals() throws Exception
+    {
+        NamespaceIndex index = build(true, true);
+
+        Assert.assertTrue(index.hasAges());
+        Assert.assertTrue(index.hasPrincipals());
+        assertRoundTrip(index);
+    }
+
+    @Test
+    public void testWithoutAgesNorPrincipals() throws Exception
+    {
+        NamespaceIndex index = build(false, false);
+
+        Assert.assertFalse(index.hasAges());
+        Assert.assertFalse(index.hasPrincipals());
+        assertRoundTrip(index);
+    }
+
+    @Test
+    public void testWithAgesOnly() throws Exception
+    {
+        assertRoundTrip(build(true, false));
+    }
+
+    @Test
+    public void testWithPrincipalsOnly() throws Exception
+    {
+        assertRoundTrip(build(false, true));
+    }
+
+    @Test
+    public void testOverwrite() throws Exception
+    {
+        NamespaceSnapshot.write(build(true, true), snapshot);
+        NamespaceSnapshot.write(build(false, false), snapshot);
+
+        Assert.assertFalse(new File(snapshot.getPath() + ".tmp").exists());
+        Assert.assertFalse(NamespaceSnapshot.open(snapshot).hasAges());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotASnapshot() throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(snapshot);
+
+        try {
+            out.write(new byte[1024]);
+        }
+        finally {
+            out.close();
+        }
+
+        NamespaceSnapshot.open(snapshot);
+    }
+
+    /**
+     * Directories and files of every histogram bucket, a name longer than a one byte varint and
+     * one which isn't ASCII
+     */
+    private static NamespaceIndex build(boolean ages, boolean principals)
+    {
+        NamespaceIndex index = new NamespaceIndex("/data");
+        int today = FileAgeHistogram.getToday();
+        int root = index.addDirectory(Namespace.NONE, "data");
+        int logs = index.addDirectory(root, "logs");
+        int year = index.addDirectory(logs, "2012");
+        index.addDirectory(root, "empty");
+
+        index.setModificationTime(root, 1330000000000L);
+        index.setModificationTime(logs, 1330000060000L);
+
+        int node = 0;
+
+        for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+            long length = FileSizeHistogram.getLowerBound(bucket);
+            int file = index.addFile(bucket % 2 == 0 ? logs : year, "part-" + bucket, length, (short) (1 + bucket % 3),
+                NamenodeCost.getBlockCount(length, 64L << 20));
+
+            if (ages) {
+                // Every age bucket, and files without any time
+                index.setLastTouchedDay(file, bucket % 8 == 7 ? 0 : today - FileAgeHistogram.getLowerBound(bucket % 8));
+            }
+
+            node = file;
+        }
+
+        int longName = index.addFile(root, new String(new char[200]).replace('\0', 'x'), 42, (short) 3, 1);
+        int accented = index.addFile(year, "caf\u00e9", 7, (short) 2, 1);
+
+        if (principals) {
+            index.setOwner(root, "hdfs", "supergroup");
+            index.setOwner(logs, "pierre", "");
+            index.setOwner(longName, "pierre", "analysts");
+            index.setOwner(accented, null, "analysts");
+            index.setOwner(node, "caf\u00e9", "supergroup");
+        }
+
+        index.aggregate();
+
+        return index;
+    }
+
+    private void assertRoundTrip(NamespaceIndex index) throws IOException
+    {
+        NamespaceSnapshot.write(index, snapshot);
+
+        Namespace mapped = NamespaceSnapshot.open(snapshot);
+
+        Assert.assertEquals(index.getRootPath(), mapped.getRootPath());
+        Assert.assertEquals(index.size(), mapped.size());
+        Assert.assertEquals(index.hasAges(), mapped.hasAges());
+        Assert.assertEquals(index.hasPrincipals(), mapped.hasPrincipals());
+
+        for (int node = 0; node < index.size(); ++node) {
+            String name = index.getName(node);
+
+            Assert.assertEquals(name, index.getParent(node), mapped.getParent(node));
+            Assert.assertEquals(name, index.getFirstChild(node), mapped.getFirstChild(node));
+            Assert.assertEquals(name, index.getNextSibling(node), mapped.getNextSibling(node));
+            Assert.assertEquals(name, index.isDirectory(node), mapped.isDirectory(node));
+            Assert.assertEquals(name, mapped.getName(node));
+            Assert.assertEquals(name, index.getSpaceConsumed(node), mapped.getSpaceConsumed(node));
+            Assert.assertEquals(name, index.getLength(node), mapped.getLength(node));
+            Assert.assertEquals(name, index.getFileCount(node), mapped.getFileCount(node));
+            Assert.assertEquals(name, index.getDirectoryCount(node), mapped.getDirectoryCount(node));
+            Assert.assertEquals(name, index.getBlockCount(node), mapped.getBlockCount(node));
+            Assert.assertEquals(name, index.getModificationTime(node), mapped.getModificationTime(node));
+            Assert.assertEquals(name, index.getLastTouchedDay(node), mapped.getLastTouchedDay(node));
+            Assert.assertEquals(name, index.getPrincipal(index.getOwner(node)), mapped.getPrincipal(mapped.getOwner(node)));
+            Assert.assertEquals(name, index.getPrincipal(index.getGroup(node)), mapped.getPrincipal(mapped.getGroup(node)));
+
+            for (int bucket = 0; bucket < FileSizeHistogram.BUCKETS; ++bucket) {
+                Assert.assertEquals(name, index.getFileCount(node, bucket), mapped.getFileCount(node, bucket));
+            }
+
+            for (int bucket = 0; bucket < FileAgeHistogram.BUCKETS; ++bucket) {
+                Assert.assertEquals(name, index.getSpaceConsumed(node, bucket), mapped.getSpaceConsumed(node, bucket));
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+
+public class TestOivDumpLoader
+{
+    private static final String SAMPLE_DUMP = "examples/sample_oiv_dump.tsv";
+    private static final String HEADER = "Path\tReplication\tModificationTime\tAccessTime\tPreferredBlockSize\tBlocksCount\tFileSize\tNSQUOTA\tDSQUOTA\tPermission\tUserName\tGroupName\n";
+
+    @Test
+    public void testSampleDump() throws Exception
+    {
+        NamespaceIndex index = new OivDumpLoader('\t').load(SAMPLE_DUMP);
+
+        Assert.assertEquals("/", index.getRootPath());
+        Assert.assertEquals(7, index.getFileCount(Namespace.ROOT));
+        Assert.assertEquals(73400320L + 1024 + 4096 + 150994944 + 12582912 + 512 + 2048, index.getLength(Namespace.ROOT));
+        Assert.assertEquals(3 * (73400320L + 1024 + 150994944 + 12582912 + 512 + 2048) + 2 * 4096, index.getSpaceConsumed(Namespace.ROOT));
+        Assert.assertEquals(2 + 1 + 1 + 3 + 1 + 1 + 1, index.getBlockCount(Namespace.ROOT));
+
+        int pierre = child(index, child(index, Namespace.ROOT, "user"), "pierre");
+
+        Assert.assertTrue(index.isDirectory(pierre));
+        Assert.assertEquals(2, index.getFileCount(pierre));
+        Assert.assertEquals(73400320L + 1024, index.getLength(pierre));
+        Assert.assertEquals("pierre", index.getPrincipal(index.getOwner(pierre)));
+        Assert.assertEquals("supergroup", index.getPrincipal(index.getGroup(pierre)));
+        Assert.assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2012-03-02 09:40").getTime(), index.getModificationTime(pierre));
+        Assert.assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2012-03-01 10:12").getTime(), index.getModificationTime(Namespace.ROOT));
+
+        // Directories only implied by the paths of their files
+        int events = child(index, Namespace.ROOT, "events");
+        int day = child(index, events, "dt=2012-03-01");
+
+        Assert.assertEquals(2, index.getFileCount(day));
+        Assert.assertEquals(0, index.getModificationTime(day));
+
+        int tmp = child(index, Namespace.ROOT, "tmp");
+
+        Assert.assertEquals(0, index.getFileCount(tmp));
+        Assert.assertEquals("hadoop", index.getPrincipal(index.getOwner(tmp)));
+    }
+
+    @Test
+    public void testRepeatedSlashes() throws Exception
+    {
+        NamespaceIndex index = load(
+            file("/a/b/one", 10),
+            file("/a//b//two", 20),
+            // Shares its parent with the previous line, slashes included
+            file("/a//b/d/three", 30),
+            file("//a///b/four", 40),
+            file("/a/c/five", 50)
+        );
+
+        int a = child(index, Namespace.ROOT, "a");
+        int b = child(index, a, "b");
+
+        Assert.assertEquals(1, count(index, Namespace.ROOT));
+        Assert.assertEquals(2, count(index, a));
+        Assert.assertEquals(4, index.getFileCount(b));
+        Assert.assertEquals(30, index.getLength(child(index, b, "d")));
+        Assert.assertEquals(100, index.getLength(b));
+        Assert.assertEquals(150, index.getLength(Namespace.ROOT));
+    }
+
+    @Test
+    public void testTrailingSlashesAndHeader() throws Exception
+    {
+        NamespaceIndex index = load(
+            HEADER,
+            "/a/\t0\t2012-03-01 10:12\t1970-01-01 00:00\t0\t0\t0\t-1\t-1\tdrwxr-xr-x\thadoop\tsupergroup\n",
+            file("/a/one", 10)
+        );
+
+        Assert.assertEquals(1, count(index, Namespace.ROOT));
+        Assert.assertEquals(10, index.getLength(child(index, Namespace.ROOT, "a")));
+    }
+
+    @Test
+    public void testWithoutAgesNorPrincipals() throws Exception
+    {
+        NamespaceIndex full = new OivDumpLoader('\t').load(SAMPLE_DUMP);
+        NamespaceIndex index = new OivDumpLoader('\t', false, false).load(SAMPLE_DUMP);
+
+        Assert.assertFalse(index.hasAges());
+        Assert.assertFalse(index.hasPrincipals());
+        Assert.assertEquals(full.getSpaceConsumed(Namespace.ROOT), index.getSpaceConsumed(Namespace.ROOT));
+        Assert.assertEquals(Namespace.NONE, index.getOwner(Namespace.ROOT));
+        Assert.assertEquals(Item.UNKNOWN_SIZE, FileAgeHistogram.getColdSpace(index, Namespace.ROOT, 30));
+        Assert.assertTrue(index.getMemoryUsage() < full.getMemoryUsage());
+
+        File snapshot = File.createTempFile("sweeper", ".snapshot");
+
+        try {
+            NamespaceSnapshot.write(index, snapshot);
+
+            Namespace mapped = NamespaceSnapshot.open(snapshot);
+
+            Assert.assertFalse(mapped.hasAges());
+            Assert.assertFalse(mapped.hasPrincipals());
+            Assert.assertEquals(index.getSpaceConsumed(Namespace.ROOT), mapped.getSpaceConsumed(Namespace.ROOT));
+            Assert.assertEquals(Namespace.NONE, mapped.getGroup(Namespace.ROOT));
+            Assert.assertEquals(0, mapped.getSpaceConsumed(Namespace.ROOT, 0));
+        }
+        finally {
+            snapshot.delete();
+        }
+    }
+
+    private static NamespaceIndex load(String... lines) throws IOException
+    {
+        StringBuilder dump = new StringBuilder();
+
+        for (String line : lines) {
+            dump.append(line);
+        }
+
+        return new OivDumpLoader('\t').load(new ByteArrayInputStream(dump.toString().getBytes("UTF-8")));
+    }
+
+    private static String file(String path, long length)
+    {
+        return path + "\t3\t2012-03-02 09:40\t2012-03-02 09:40\t67108864\t1\t" + length + "\t0\t0\t-rw-r--r--\thadoop\tsupergroup\n";
+    }
+
+    private static int child(Namespace namespace, int node, String name)
+    {
+        for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            if (namespace.getName(child).equals(name)) {
+                return child;
+            }
+        }
+
+        throw new AssertionError(String.format("No %s under %s", name, namespace.getName(node)));
+    }
+
+    private static int count(Namespace namespace, int node)
+    {
+        int children = 0;
+
+        for (int child = namespace.getFirstChild(node); child != Namespace.NONE; child = namespace.getNextSibling(child)) {
+            children++;
+        }
+
+        return children;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.sweeper;
+
+import com.ning.sweeper.config.ContentSummaryTypes;
+import com.ning.sweeper.config.SweeperConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.ConfigurationObjectFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+public class TestSweeperServer
+{
+    private static final int CLIENTS = 300;
+
+    private NamespaceIndex index;
+    private SweeperServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        index = createIndex("/data", 5);
+        server = new SweeperServer(index, "127.0.0.1", 0, 16);
+        server.start();
+        url = "http://127.0.0.1:" + server.getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop();
+    }
+
+    private static NamespaceIndex createIndex(String rootPath, int files)
+    {
+        NamespaceIndex index = new NamespaceIndex(rootPath);
+        int root = index.addDirectory(Namespace.NONE, "");
+
+        for (int i = 0; i < 3; ++i) {
+            int directory = index.addDirectory(root, "dir " + i);
+
+            for (int j = 0; j < files; ++j) {
+                index.addFile(directory, "file-" + j + "%\u00e9", 1000 * i + j, (short) 3, 1);
+            }
+        }
+
+        index.addFile(root, "top", 42, (short) 3, 1);
+        index.aggregate();
+
+        return index;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        RemoteItem root = RemoteItem.open(url, ContentSummaryTypes.SPACE_USED);
+
+        Assert.assertEquals("/data", root.getRootPath());
+        assertSame(new NamespaceItem(index, Namespace.ROOT, ContentSummaryTypes.SPACE_USED), root);
+    }
+
+    @Test
+    public void testPages() throws IOException
+    {
+        RemoteItem root = RemoteItem.open(url, ContentSummaryTypes.LENGTH);
+        Item directory = root.getChildren().get(0);
+        Iterator<List<Item>> pages = ((PagedItem) directory).listChildren(2);
+        List<String> names = new ArrayList<String>();
+        int count = 0;
+
+        while (pages.hasNext()) {
+            List<Item> page = pages.next();
+
+            Assert.assertTrue(page.size() <= 2);
+
+            for (Item child : page) {
+                names.add(child.getName());
+            }
+
+            count++;
+        }
+
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(5, names.size());
+        Assert.assertTrue(names.contains("file-0%\u00e9"));
+    }
+
+    @Test
+    public void testRefreshedNamespace() throws IOException
+    {
+        RemoteItem root = RemoteItem.open(url, ContentSummaryTypes.SPACE_USED);
+
+        server.setNamespace(createIndex("/data", 6));
+
+        try {
+            root.getChildren();
+            Assert.fail();
+        }
+        catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("browse it again"));
+        }
+
+        RemoteItem refreshed = RemoteItem.open(url, ContentSummaryTypes.NUMBER_OF_FILES);
+
+        Assert.assertEquals(3 * 6 + 1, refreshed.getTotalSize());
+    }
+
+    @Test
+    public void testErrors() throws IOException
+    {
+        Assert.assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, getStatus("/children?node=1000000"));
+        Assert.assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, getStatus("/children?node=abc"));
+        Assert.assertEquals(HttpURLConnection.HTTP_GONE, getStatus("/children?node=0&generation=1"));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, getStatus("/children?node=0"));
+
+        server.setNamespace(new NamespaceIndex("/broken")
+        {
+            @Override
+            public String getName(int node)
+            {
+                throw new IllegalStateException("broken index");
+            }
+        });
+
+        Assert.assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, getStatus("/root"));
+    }
+
+    @Test
+    public void testLoopbackByDefault()
+    {
+        SweeperConfig config = new ConfigurationObjectFactory(new Properties()).build(SweeperConfig.class);
+
+        Assert.assertEquals("127.0.0.1", config.getServerHost());
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception
+    {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> clients = new ArrayList<Thread>();
+
+        for (int i = 0; i < CLIENTS; ++i) {
+            Thread client = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        assertSame(new NamespaceItem(index, Namespace.ROOT, ContentSummaryTypes.SPACE_USED), RemoteItem.open(url, ContentSummaryTypes.SPACE_USED));
+                    }
+                    catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+
+            client.start();
+            clients.add(client);
+        }
+
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        Assert.assertEquals(new ArrayList<Throwable>(), errors);
+    }
+
+    private int getStatus(String path) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+
+        try {
+            return connection.getResponseCode();
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void assertSame(Item expected, Item actual)
+    {
+        Assert.assertEquals(expected.getName(), actual.getName());
+
+        for (ContentSummaryTypes type : ContentSummaryTypes.values()) {
+            Assert.assertEquals(expected.getName() + " " + type, expected.getTotalSize(type), actual.getTotalSize(type));
+        }
+
+        List<Item> expectedChildren = expected.getChildren();
+        List<Item> actualChildren = actual.getChildren();
+
+        Assert.assertEquals(expectedChildren.size(), actualChildren.size());
+
+        for (int i = 0; i < expectedChildren.size(); ++i) {
+            assertSame(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+}